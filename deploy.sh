@@ -13,6 +13,13 @@ if [[ ! -f bin/AWSHealthCheck-1.0-SNAPSHOT.jar ]]; then
     exit 1
 fi
 
+# The run lease needs a versioned bucket; versions replaced by later writes are expired after a day
+aws s3api put-bucket-versioning --bucket $BUCKET --versioning-configuration Status=Enabled
+aws s3api put-bucket-lifecycle-configuration --bucket $BUCKET --lifecycle-configuration \
+  '{"Rules": [{"ID": "expire-noncurrent-versions", "Status": "Enabled", "Filter": {"Prefix": ""},
+    "NoncurrentVersionExpiration": {"NoncurrentDays": 1},
+    "Expiration": {"ExpiredObjectDeleteMarker": true}}]}'
+
 aws cloudformation package \
    --template-file src/sam.yaml \
    --output-template-file deploy.sam.yaml \
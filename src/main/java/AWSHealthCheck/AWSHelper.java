@@ -29,6 +29,10 @@ import com.amazonaws.services.health.AWSHealthClientBuilder;
 import com.amazonaws.services.health.model.*;
 import com.amazonaws.services.organizations.*;
 import com.amazonaws.services.cloudwatch.*;
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.lambda.model.InvocationType;
+import com.amazonaws.services.lambda.model.InvokeRequest;
 import com.amazonaws.services.organizations.model.DescribeAccountRequest;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
@@ -37,15 +41,22 @@ import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
 import com.amazonaws.services.securitytoken.model.GetCallerIdentityRequest;
 import com.amazonaws.services.simpleemail.*;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.AmazonSNSClientBuilder;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.PublishResult;
 import com.amazonaws.services.simpleemail.model.RawMessage;
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 import com.amazonaws.services.simpleemail.model.SendRawEmailResult;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Consumer;
 
 public final class AWSHelper {
 
@@ -125,6 +136,66 @@ public final class AWSHelper {
             return client.putObject(bucket, remoteFilename, localFile);
         }
 
+        public static PutObjectResult uploadString(String bucket, String content, String remoteFilename,
+                                                   String region) {
+            buildS3Client(region);
+            LOGGER.debug("Uploading content to " + bucket + "/" + remoteFilename);
+            return client.putObject(bucket, remoteFilename, content);
+        }
+
+        /*
+         * Returns null when the object does not exist
+         */
+        public static String downloadString(String bucket, String remoteFilename, String region) {
+            buildS3Client(region);
+            LOGGER.debug("Downloading content of " + bucket + "/" + remoteFilename);
+            try {
+                return client.getObjectAsString(bucket, remoteFilename);
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() != 404) LOGGER.error(e.getMessage());
+                return null;
+            }
+        }
+
+        /*
+         * Content of a version of the object; returns null when the version does not exist
+         */
+        public static String downloadStringVersion(String bucket, String remoteFilename, String versionId,
+                                                   String region) throws IOException {
+            buildS3Client(region);
+            LOGGER.debug("Downloading content of " + bucket + "/" + remoteFilename + " version " + versionId);
+            try (S3Object object = client.getObject(new GetObjectRequest(bucket, remoteFilename, versionId))) {
+                return IOUtils.toString(object.getObjectContent(), StandardCharsets.UTF_8);
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() != 404) throw e;
+                return null;
+            }
+        }
+
+        /*
+         * Versions and delete markers of the object, newest first as listed by S3
+         */
+        public static List<S3VersionSummary> listVersions(String bucket, String remoteFilename, String region) {
+            buildS3Client(region);
+            List<S3VersionSummary> versions = new ArrayList<>();
+            VersionListing listing = client.listVersions(new ListVersionsRequest().withBucketName(bucket)
+                                                                                 .withPrefix(remoteFilename));
+            while (true) {
+                for (S3VersionSummary i : listing.getVersionSummaries()) {
+                    if (i.getKey().equals(remoteFilename)) versions.add(i);
+                }
+                if (!listing.isTruncated()) break;
+                listing = client.listNextBatchOfVersions(listing);
+            }
+            return versions;
+        }
+
+        public static void deleteVersion(String bucket, String remoteFilename, String versionId, String region) {
+            buildS3Client(region);
+            LOGGER.debug("Deleting " + bucket + "/" + remoteFilename + " version " + versionId);
+            client.deleteVersion(bucket, remoteFilename, versionId);
+        }
+
         public static void downloadFile(String bucket, String localFilename, String remoteFilename, String region) {
             buildS3Client(region);
             download(bucket, localFilename, remoteFilename);
@@ -251,20 +322,22 @@ public final class AWSHelper {
     }
 
     public static class SESHelper {
-        private static AmazonSimpleEmailService client;
 
+        /*
+         * The client is built per call (not kept in a static field) since profiles with different SES regions
+         * send in parallel.
+         */
         public static void sendRawEmail(String sender, String recipient, RawMessage rawMessage, String region) {
-            client = AmazonSimpleEmailServiceClientBuilder.standard().withRegion(region).build();
-            sendRawMessage(sender, recipient, rawMessage);
-
+            sendRawMessage(AmazonSimpleEmailServiceClientBuilder.standard().withRegion(region).build(),
+                           sender, recipient, rawMessage);
         }
 
         public static void sendRawEmail(String sender, String recipient, RawMessage rawMessage) {
-            client = AmazonSimpleEmailServiceClientBuilder.defaultClient();
-            sendRawMessage(sender, recipient, rawMessage);
+            sendRawMessage(AmazonSimpleEmailServiceClientBuilder.defaultClient(), sender, recipient, rawMessage);
         }
 
-        private static void sendRawMessage(String sender, String recipient, RawMessage rawMessage) {
+        private static void sendRawMessage(AmazonSimpleEmailService client, String sender, String recipient,
+                                           RawMessage rawMessage) {
             LOGGER.debug("Sending Email: sender-" + sender + " recipient-" + recipient + " message-" + rawMessage);
             SendRawEmailRequest request = new SendRawEmailRequest();
             request.setSource(sender);
@@ -275,6 +348,32 @@ public final class AWSHelper {
         }
     }
 
+    public static class SNSHelper {
+
+        public static String publish(String topicArn, String subject, String message, String region) {
+            AmazonSNS client = AmazonSNSClientBuilder.standard().withRegion(region).build();
+            LOGGER.debug("Publishing to " + topicArn);
+            PublishResult result = client.publish(new PublishRequest(topicArn, message, subject));
+            return result.getMessageId();
+        }
+    }
+
+    public static class LambdaHelper {
+        private static final AWSLambda CLIENT = AWSLambdaClientBuilder.defaultClient();
+
+        /*
+         * Invoke the function asynchronously; Lambda queues the event and retries on failure.
+         */
+        public static void invokeAsync(String functionName, String payload) {
+            LOGGER.debug("Invoking " + functionName + " with " + payload);
+            InvokeRequest request = new InvokeRequest()
+                                    .withFunctionName(functionName)
+                                    .withInvocationType(InvocationType.Event)
+                                    .withPayload(payload);
+            CLIENT.invoke(request);
+        }
+    }
+
     public static class CloudWatchHelper {
         private static final AmazonCloudWatch CLIENT = AmazonCloudWatchClientBuilder.defaultClient();
         private static final List<MetricDatum> DATA_LIST = new ArrayList<>();
@@ -324,36 +423,93 @@ public final class AWSHelper {
     public static class AWSHealthHelper {
         private static final AWSHealth CLIENT = AWSHealthClientBuilder.defaultClient();
 
-        public static List<Event> describeEvents(List<String> region, List<String> category,
-                                                 List<String> status, Collection<Map<String,String>> tags,
-                                                 List<DateTimeRange> startTimes, List<DateTimeRange> endTimes) {
-            List<Event> result = new ArrayList<>();
-
-            /*
-             * TODO: Modify config.yaml, AWSHealthCheck.Config.java, and this method to add more filters.
-             * https://docs.aws.amazon.com/health/latest/APIReference/API_DescribeEvents.html
-             */
-            EventFilter filter = new EventFilter();
-            filter.setRegions(region);
-            filter.setEventStatusCodes(status);
-            filter.setEventTypeCategories(category);
-            filter.setTags(tags);
-            if (startTimes != null) filter.setStartTimes(startTimes);
-            if (endTimes != null) filter.setEndTimes(endTimes);
+        /*
+         * EventFilter limits on the number of values per field.
+         * https://docs.aws.amazon.com/health/latest/APIReference/API_EventFilter.html
+         */
+        public static final int MAX_FILTER_VALUES = 10;
+        public static final int MAX_FILTER_ENTITIES = 100;
+        public static final int MAX_FILTER_STATUS_CODES = 6;
+        public static final int MAX_FILTER_TAGS = 50;
+
+        /*
+         * describeEvents page by page; the next page is requested in the background while the caller works on
+         * the current one.
+         */
+        public static Iterator<List<Event>> describeEventPages(EventFilter filter) {
+            checkEventFilter(filter);
+            return new PrefetchingPageIterator<>(token -> {
+                DescribeEventsRequest request = new DescribeEventsRequest();
+                request.setFilter(filter);
+                request.setNextToken(token);
+                return CLIENT.describeEvents(request);
+            }, DescribeEventsResult::getEvents, DescribeEventsResult::getNextToken);
+        }
+
+        /*
+         * Only the first page of describeEvents; events are returned most recently updated first, so this is
+         * enough to tell whether anything changed since the last look.
+         */
+        public static List<Event> describeLatestEvents(EventFilter filter, Integer maxResults) {
+            checkEventFilter(filter);
             DescribeEventsRequest request = new DescribeEventsRequest();
             request.setFilter(filter);
-            DescribeEventsResult response = CLIENT.describeEvents(request);
+            request.setMaxResults(maxResults);
+            return CLIENT.describeEvents(request).getEvents();
+        }
 
-            result.addAll(response.getEvents());
+        /*
+         * Event counts per category for the filter.
+         * https://docs.aws.amazon.com/health/latest/APIReference/API_DescribeEventAggregates.html
+         */
+        public static Map<String, Integer> describeEventAggregates(EventFilter filter) {
+            checkEventFilter(filter);
+            Map<String, Integer> result = new TreeMap<>();
 
-            while (response.getNextToken() != null) {
+            DescribeEventAggregatesRequest request = new DescribeEventAggregatesRequest();
+            request.setFilter(filter);
+            request.setAggregateField("eventTypeCategory");
+            DescribeEventAggregatesResult response;
+
+            do {
+                response = CLIENT.describeEventAggregates(request);
+                for (EventAggregate i : response.getEventAggregates()) {
+                    result.put(i.getAggregateValue(), i.getCount());
+                }
                 request.setNextToken(response.getNextToken());
-                response = CLIENT.describeEvents(request);
-                result.addAll(response.getEvents());
-            }
+            } while (response.getNextToken() != null);
             return result;
         }
 
+        /*
+         * Fail before sending a filter the API would reject, naming the offending field.
+         */
+        public static void checkEventFilter(EventFilter filter) {
+            List<String> errors = new ArrayList<>();
+            checkFilterValues(errors, "regions", filter.getRegions(), MAX_FILTER_VALUES);
+            checkFilterValues(errors, "services", filter.getServices(), MAX_FILTER_VALUES);
+            checkFilterValues(errors, "eventTypeCodes", filter.getEventTypeCodes(), MAX_FILTER_VALUES);
+            checkFilterValues(errors, "eventTypeCategories", filter.getEventTypeCategories(), MAX_FILTER_VALUES);
+            checkFilterValues(errors, "eventStatusCodes", filter.getEventStatusCodes(), MAX_FILTER_STATUS_CODES);
+            checkFilterValues(errors, "eventArns", filter.getEventArns(), MAX_FILTER_VALUES);
+            checkFilterValues(errors, "entityArns", filter.getEntityArns(), MAX_FILTER_ENTITIES);
+            checkFilterValues(errors, "entityValues", filter.getEntityValues(), MAX_FILTER_ENTITIES);
+            checkFilterValues(errors, "availabilityZones", filter.getAvailabilityZones(), Integer.MAX_VALUE);
+            checkFilterValues(errors, "startTimes", filter.getStartTimes(), MAX_FILTER_VALUES);
+            checkFilterValues(errors, "endTimes", filter.getEndTimes(), MAX_FILTER_VALUES);
+            checkFilterValues(errors, "lastUpdatedTimes", filter.getLastUpdatedTimes(), MAX_FILTER_VALUES);
+            checkFilterValues(errors, "tags", filter.getTags(), MAX_FILTER_TAGS);
+            if (!errors.isEmpty()) {
+                throw new IllegalArgumentException("Invalid AWS Health event filter: " + String.join(", ", errors));
+            }
+        }
+
+        private static void checkFilterValues(List<String> errors, String field, Collection<?> values, int max) {
+            if (values != null && values.size() > max) {
+                errors.add(field + " has " + values.size() + " values, at most " + max + " allowed");
+            }
+        }
+
         public static List<EventDetails> describeEventDetails(Collection<String> eventArns) {
             List<EventDetails> result;
 
@@ -366,21 +522,31 @@ public final class AWSHelper {
 
         public static List<AffectedEntity>  describeAffectedEntities(Collection<String> eventArns) {
             List<AffectedEntity> result = new ArrayList<>();
+            describeAffectedEntityPages(eventArns).forEachRemaining(result::addAll);
+            return result;
+        }
 
+        /*
+         * Hand each affected entity to the consumer page by page instead of collecting all pages, so events with
+         * tens of thousands of entities don't need to fit in memory.
+         */
+        public static void describeAffectedEntities(Collection<String> eventArns, Consumer<AffectedEntity> consumer) {
+            describeAffectedEntityPages(eventArns).forEachRemaining(i -> i.forEach(consumer));
+        }
+
+        /*
+         * describeAffectedEntities page by page, with the next page prefetched like describeEventPages().
+         */
+        public static Iterator<List<AffectedEntity>> describeAffectedEntityPages(Collection<String> eventArns) {
             EntityFilter filter = new EntityFilter();
             filter.setEventArns(eventArns);
 
-            DescribeAffectedEntitiesRequest request_detail_entity = new DescribeAffectedEntitiesRequest();
-            request_detail_entity.setFilter(filter);
-            DescribeAffectedEntitiesResult response = CLIENT.describeAffectedEntities(request_detail_entity);
-            result.addAll(response.getEntities());
-
-            while (response.getNextToken() != null) {
-                request_detail_entity.setNextToken(response.getNextToken());
-                response = CLIENT.describeAffectedEntities(request_detail_entity);
-                result.addAll(response.getEntities());
-            }
-            return result;
+            return new PrefetchingPageIterator<>(token -> {
+                DescribeAffectedEntitiesRequest request_detail_entity = new DescribeAffectedEntitiesRequest();
+                request_detail_entity.setFilter(filter);
+                request_detail_entity.setNextToken(token);
+                return CLIENT.describeAffectedEntities(request_detail_entity);
+            }, DescribeAffectedEntitiesResult::getEntities, DescribeAffectedEntitiesResult::getNextToken);
         }
 
     }
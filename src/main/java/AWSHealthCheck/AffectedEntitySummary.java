@@ -0,0 +1,176 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Bounded-memory summary of the affected entities of an event
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.AffectedEntity;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Keeps the entity counts by status code and resource type plus the first N entities of an event. Once the
+ * sample is full, every entity is spilled to a gzip file instead of being kept in memory, so the memory used
+ * stays the same whether the event affects ten resources or tens of thousands.
+ */
+public class AffectedEntitySummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = LogManager.getLogger(AffectedEntitySummary.class);
+
+    private final String eventArn;
+    private final String service;
+    private final int sampleSize;
+    private final String spillFileName;
+    private int total = 0;
+    private final Map<String, Integer> countsByStatus = new TreeMap<>();
+    private final Map<String, Integer> countsByResourceType = new TreeMap<>();
+    private final List<AffectedEntity> sample = new ArrayList<>();
+    private String spillKey;
+    private transient Writer spillWriter;
+
+    public AffectedEntitySummary(String eventArn, String service, int sampleSize, String spillFileName) {
+        this.eventArn = eventArn;
+        this.service = service;
+        this.sampleSize = sampleSize;
+        this.spillFileName = spillFileName;
+    }
+
+    public void add(AffectedEntity entity) {
+        // Check if this is an actual affected entity
+        if (entity.getEntityArn() == null || entity.getEntityArn().isEmpty()) {
+            return;
+        }
+
+        total++;
+        String status = entity.getStatusCode() == null ? "UNKNOWN" : entity.getStatusCode();
+        countsByStatus.merge(status, 1, Integer::sum);
+        countsByResourceType.merge(getResourceType(entity), 1, Integer::sum);
+
+        if (sample.size() < sampleSize) {
+            sample.add(entity);
+            return;
+        }
+
+        try {
+            if (spillWriter == null) {
+                spillWriter = new BufferedWriter(new OutputStreamWriter(
+                              new GZIPOutputStream(new FileOutputStream(spillFileName)), StandardCharsets.UTF_8));
+                for (AffectedEntity i : sample) {
+                    spillWriter.write(toLine(i));
+                }
+            }
+            spillWriter.write(toLine(entity));
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage());
+        }
+    }
+
+    /*
+     * Close the spill file. Returns the file to upload when the entity list did not fit in the sample, null
+     * otherwise.
+     */
+    public File finish() {
+        if (spillWriter == null) return null;
+        try {
+            spillWriter.close();
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage());
+        }
+        spillWriter = null;
+        return new File(spillFileName);
+    }
+
+    public boolean isTruncated() {
+        return total > sample.size();
+    }
+
+    public String getEventArn() {
+        return eventArn;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public Map<String, Integer> getCountsByStatus() {
+        return countsByStatus;
+    }
+
+    public Map<String, Integer> getCountsByResourceType() {
+        return countsByResourceType;
+    }
+
+    public List<AffectedEntity> getSample() {
+        return sample;
+    }
+
+    public String getSpillKey() {
+        return spillKey;
+    }
+
+    public void setSpillKey(String spillKey) {
+        this.spillKey = spillKey;
+    }
+
+    /*
+     * The entity ARN identifies the Health entity (arn:aws:health:...:entity/...), not the resource; the resource
+     * type is taken from the entity value when it is a resource ARN, otherwise the event's service is reported.
+     */
+    private String getResourceType(AffectedEntity entity) {
+        String value = entity.getEntityValue();
+        if (value != null && value.startsWith("arn:")) return getResourceType(value);
+        return service != null ? service : "UNKNOWN";
+    }
+
+    /*
+     * Resource type from a resource ARN, e.g. "ec2:instance" for
+     * arn:aws:ec2:us-east-1:123456789012:instance/i-0123456789abcdef0
+     */
+    static String getResourceType(String resourceArn) {
+        String[] parts = resourceArn.split(":", 6);
+        if (parts.length < 3 || !parts[0].equals("arn")) return "other";
+        if (parts.length < 6 || parts[5].isEmpty()) return parts[2];
+        String resource = parts[5];
+        int end = resource.length();
+        for (char c : new char[] {'/', ':'}) {
+            int idx = resource.indexOf(c);
+            if (idx >= 0 && idx < end) end = idx;
+        }
+        // Resources without a type prefix (e.g. S3 bucket names) are reported under the service
+        return end == resource.length() ? parts[2] : parts[2] + ":" + resource.substring(0, end);
+    }
+
+    private static String toLine(AffectedEntity entity) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(entity.getEntityArn()).append('\t')
+          .append(entity.getEntityValue() == null ? "" : entity.getEntityValue()).append('\t')
+          .append(entity.getStatusCode() == null ? "" : entity.getStatusCode()).append('\t')
+          .append(entity.getLastUpdatedTime() == null ? "" : entity.getLastUpdatedTime().getTime()).append('\t');
+        if (entity.getTags() != null) {
+            new TreeMap<>(entity.getTags()).forEach((k, v) -> sb.append(k).append('=').append(v).append(';'));
+        }
+        return sb.append(System.getProperty("line.separator")).toString();
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Packs event ARNs into AWSHealth API request batches
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.AmazonServiceException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.util.*;
+import java.util.function.Function;
+
+public class ArnBatchPlanner {
+    private static final Logger LOGGER = LogManager.getLogger(ArnBatchPlanner.class);
+
+    /*
+     * DescribeEventDetails and DescribeAffectedEntities both take in a maximum of 10 event ARN at a time with
+     * maximum length of 1600.
+     * https://docs.aws.amazon.com/health/latest/APIReference/API_DescribeEventDetails.html
+     * https://docs.aws.amazon.com/health/latest/APIReference/API_EntityFilter.html
+     */
+    public static final int MAX_ARNS_PER_REQUEST = 10;
+    public static final int MAX_ARNS_LENGTH_PER_REQUEST = 1600;
+
+    // Error codes of a request rejected for its parameters; throttling and other errors are left to the SDK retry
+    private static final Set<String> SPLIT_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "ValidationException", "InvalidParameterValue", "InvalidParameterValueException",
+            "InvalidParameterCombination"));
+
+    private final int maxCount;
+    private final int maxLength;
+
+    // ARNs fetched during this run, shared by every caller of the planner
+    private final Set<String> fetchedArns = new HashSet<>();
+
+    public ArnBatchPlanner() {
+        this(MAX_ARNS_PER_REQUEST, MAX_ARNS_LENGTH_PER_REQUEST);
+    }
+
+    public ArnBatchPlanner(int maxCount, int maxLength) {
+        this.maxCount = maxCount;
+        this.maxLength = maxLength;
+    }
+
+    /*
+     * Bin-pack the ARNs not yet fetched in this run into batches that stay within both the count and the total
+     * length limit. ARNs are packed first-fit in decreasing length order, which keeps the number of batches close
+     * to optimal for the handful of ARN lengths the Health API produces.
+     */
+    public List<List<String>> plan(Collection<String> eventArns) {
+        Set<String> unique = new LinkedHashSet<>();
+        for (String i : eventArns) {
+            if (i != null && !fetchedArns.contains(i)) {
+                unique.add(i);
+            }
+        }
+        List<String> pending = new ArrayList<>(unique);
+        pending.sort(Comparator.comparing(String::length).reversed());
+
+        List<List<String>> batches = new ArrayList<>();
+        List<Integer> batchLengths = new ArrayList<>();
+        for (String i : pending) {
+            int fit = -1;
+            for (int j = 0; j < batches.size(); j++) {
+                if (batches.get(j).size() < maxCount && batchLengths.get(j) + i.length() <= maxLength) {
+                    fit = j;
+                    break;
+                }
+            }
+            if (fit < 0) {
+                batches.add(new ArrayList<>());
+                batchLengths.add(0);
+                fit = batches.size() - 1;
+            }
+            batches.get(fit).add(i);
+            batchLengths.set(fit, batchLengths.get(fit) + i.length());
+        }
+
+        LOGGER.debug("Planned " + pending.size() + " event ARN(s) into " + batches.size() + " batch(es)");
+        return batches;
+    }
+
+    /*
+     * Record the batch as fetched once its calls succeeded; ARNs of a batch that failed or was never run are
+     * planned again by the next caller.
+     */
+    public void markFetched(Collection<String> batch) {
+        fetchedArns.addAll(batch);
+    }
+
+    /*
+     * Run the call for the batch; when the API rejects the batch as invalid (e.g. limits tightened on the service
+     * side), split it in half and retry each half until single ARN requests are reached.
+     */
+    public static <T> List<T> execute(List<String> batch, Function<List<String>, List<T>> call) {
+        List<T> result = new ArrayList<>();
+        try {
+            result.addAll(call.apply(batch));
+        } catch (AmazonServiceException e) {
+            if (batch.size() <= 1 || !SPLIT_ERROR_CODES.contains(e.getErrorCode())) {
+                throw e;
+            }
+            LOGGER.warn("Request with " + batch.size() + " event ARN(s) rejected, splitting: " + e.getMessage());
+            int half = batch.size() / 2;
+            result.addAll(execute(batch.subList(0, half), call));
+            result.addAll(execute(batch.subList(half, batch.size()), call));
+        }
+        return result;
+    }
+}
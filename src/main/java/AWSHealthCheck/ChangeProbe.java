@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Cheap check for AWSHealth changes since the last full run
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.Event;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Fingerprint of the event counts per category plus the most recently updated events, along with the time of
+ * the last full run and, when a digest was held back, the time it is due. Stored as a single
+ * "<last full run epoch millis>|[<digest due epoch millis>|]<fingerprint>" line.
+ */
+public class ChangeProbe {
+    // Size of the first describeEvents page used for the fingerprint
+    public static final Integer LATEST_EVENTS_PAGE_SIZE = 10;
+
+    private final String fingerprint;
+    private final long lastFullRun;
+    // 0 when no digest is held back
+    private final long digestDueAt;
+
+    public ChangeProbe(String fingerprint, long lastFullRun) {
+        this(fingerprint, lastFullRun, 0L);
+    }
+
+    public ChangeProbe(String fingerprint, long lastFullRun, long digestDueAt) {
+        this.fingerprint = fingerprint;
+        this.lastFullRun = lastFullRun;
+        this.digestDueAt = digestDueAt;
+    }
+
+    /*
+     * The same probe, recording that a held digest is due at the time.
+     */
+    public ChangeProbe withDigestDueAt(long digestDueAt) {
+        return new ChangeProbe(fingerprint, lastFullRun, digestDueAt);
+    }
+
+    /*
+     * Any event opening or closing moves the counts, and any update to an event moves it to the top of the
+     * describeEvents result, so together they catch every change the full run would render.
+     */
+    public static String buildFingerprintData(Map<String, Integer> aggregates, List<Event> latestEvents) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> i : aggregates.entrySet()) {
+            sb.append(i.getKey()).append('=').append(i.getValue()).append(';');
+        }
+        for (Event i : latestEvents) {
+            sb.append(i.getArn()).append(',')
+              .append(i.getStatusCode()).append(',')
+              .append(i.getLastUpdatedTime() == null ? "" : i.getLastUpdatedTime().getTime()).append(';');
+        }
+        return sb.toString();
+    }
+
+    public static ChangeProbe parse(String data) {
+        if (data == null) return null;
+        String[] parts = data.trim().split("\\|", 3);
+        if (parts.length < 2) return null;
+        try {
+            if (parts.length == 2) return new ChangeProbe(parts[1], Long.parseLong(parts[0]));
+            return new ChangeProbe(parts[2], Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /*
+     * True when nothing moved since the stored probe, the full reconciliation interval has not elapsed yet and no
+     * digest held back by the stored run is due.
+     */
+    public boolean canSkip(ChangeProbe stored, long reconcileIntervalMillis) {
+        return stored != null && reconcileIntervalMillis > 0
+               && fingerprint.equals(stored.fingerprint)
+               && lastFullRun - stored.lastFullRun < reconcileIntervalMillis
+               && (stored.digestDueAt == 0L || lastFullRun < stored.digestDueAt);
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getLastFullRun() {
+        return lastFullRun;
+    }
+
+    public long getDigestDueAt() {
+        return digestDueAt;
+    }
+
+    @Override
+    public String toString() {
+        return digestDueAt == 0L ? lastFullRun + "|" + fingerprint
+                                 : lastFullRun + "|" + digestDueAt + "|" + fingerprint;
+    }
+}
@@ -1,18 +1,93 @@
 package AWSHealthCheck;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import com.amazonaws.services.health.model.DateTimeRange;
+import com.amazonaws.services.health.model.Event;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.Function;
 
 public class Config {
+    public static final String DEFAULT_PROFILE_NAME = "default";
+
+    private String name;
+    private List<Config> profiles;
     private List<String> regions;
     private List<String> category;
     private List<String> status;
     private Collection<Map<String, String>> tags;
+    private List<String> services;
+    private List<String> event_type_codes;
+    private List<String> availability_zones;
+    private List<String> entity_arns;
+    private List<String> entity_values;
+    private List<TimeRange> start_times;
+    private List<TimeRange> end_times;
+    private List<TimeRange> last_updated_times;
+    private List<String> exclude;
     private String ses_region;
     private String ses_from;
     private String ses_send;
+    private Integer ses_inline_limit_kb;
     private String email_template;
+    private String sns_topic_arn;
+    private String sns_region;
+    private String webhook_url;
+    private Integer notification_timeout_seconds;
+    private List<String> priority_categories;
+    private Integer digest_minutes;
+    private Integer entity_sample_size;
+    private Integer full_reconcile_minutes;
+    private Integer shards;
+    private String shard_by;
+    private EventExclusionMatcher exclusionMatcher;
+
+    /*
+     * Time range of a filter; 'from' and 'to' take a date (2019-02-06), an instant (2019-02-06T00:00:00Z) or a
+     * duration before now (P30D). Either end may be left open.
+     */
+    public static class TimeRange {
+        private String from;
+        private String to;
+
+        public String getFrom() {
+            return from;
+        }
+
+        public void setFrom(String from) {
+            this.from = from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public void setTo(String to) {
+            this.to = to;
+        }
+
+        public DateTimeRange toDateTimeRange() {
+            DateTimeRange range = new DateTimeRange();
+            if (from != null) range.setFrom(parse(from));
+            if (to != null) range.setTo(parse(to));
+            return range;
+        }
+
+        public boolean contains(Date date) {
+            if (date == null) return false;
+            return (from == null || !date.before(parse(from))) && (to == null || !date.after(parse(to)));
+        }
+
+        private static Date parse(String value) {
+            if (value.startsWith("P")) return Date.from(Instant.now().minus(Duration.parse(value)));
+            if (value.length() == 10) {
+                return Date.from(LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant());
+            }
+            return Date.from(Instant.parse(value));
+        }
+    }
 
     public List<String> getRegions() {
         return regions;
@@ -46,6 +121,14 @@ public class Config {
         this.ses_send = ses_send;
     }
 
+    public Integer getSes_inline_limit_kb() {
+        return ses_inline_limit_kb;
+    }
+
+    public void setSes_inline_limit_kb(Integer ses_inline_limit_kb) {
+        this.ses_inline_limit_kb = ses_inline_limit_kb;
+    }
+
     public String getEmail_template() {
         return email_template;
     }
@@ -54,6 +137,54 @@ public class Config {
         this.email_template = email_template;
     }
 
+    public String getSns_topic_arn() {
+        return sns_topic_arn;
+    }
+
+    public void setSns_topic_arn(String sns_topic_arn) {
+        this.sns_topic_arn = sns_topic_arn;
+    }
+
+    public String getSns_region() {
+        return sns_region;
+    }
+
+    public void setSns_region(String sns_region) {
+        this.sns_region = sns_region;
+    }
+
+    public String getWebhook_url() {
+        return webhook_url;
+    }
+
+    public void setWebhook_url(String webhook_url) {
+        this.webhook_url = webhook_url;
+    }
+
+    public Integer getNotification_timeout_seconds() {
+        return notification_timeout_seconds;
+    }
+
+    public void setNotification_timeout_seconds(Integer notification_timeout_seconds) {
+        this.notification_timeout_seconds = notification_timeout_seconds;
+    }
+
+    public List<String> getPriority_categories() {
+        return priority_categories;
+    }
+
+    public void setPriority_categories(List<String> priority_categories) {
+        this.priority_categories = priority_categories;
+    }
+
+    public Integer getDigest_minutes() {
+        return digest_minutes;
+    }
+
+    public void setDigest_minutes(Integer digest_minutes) {
+        this.digest_minutes = digest_minutes;
+    }
+
     public List<String> getCategory() {
         return category;
     }
@@ -77,4 +208,265 @@ public class Config {
     public void setTags(Collection<Map<String, String>> tags) {
         this.tags = tags;
     }
+
+    public List<String> getServices() {
+        return services;
+    }
+
+    public void setServices(List<String> services) {
+        this.services = services;
+    }
+
+    public List<String> getEvent_type_codes() {
+        return event_type_codes;
+    }
+
+    public void setEvent_type_codes(List<String> event_type_codes) {
+        this.event_type_codes = event_type_codes;
+    }
+
+    public List<String> getAvailability_zones() {
+        return availability_zones;
+    }
+
+    public void setAvailability_zones(List<String> availability_zones) {
+        this.availability_zones = availability_zones;
+    }
+
+    public List<String> getEntity_arns() {
+        return entity_arns;
+    }
+
+    public void setEntity_arns(List<String> entity_arns) {
+        this.entity_arns = entity_arns;
+    }
+
+    public List<String> getEntity_values() {
+        return entity_values;
+    }
+
+    public void setEntity_values(List<String> entity_values) {
+        this.entity_values = entity_values;
+    }
+
+    public List<TimeRange> getStart_times() {
+        return start_times;
+    }
+
+    public void setStart_times(List<TimeRange> start_times) {
+        this.start_times = start_times;
+    }
+
+    public List<TimeRange> getEnd_times() {
+        return end_times;
+    }
+
+    public void setEnd_times(List<TimeRange> end_times) {
+        this.end_times = end_times;
+    }
+
+    public List<TimeRange> getLast_updated_times() {
+        return last_updated_times;
+    }
+
+    public void setLast_updated_times(List<TimeRange> last_updated_times) {
+        this.last_updated_times = last_updated_times;
+    }
+
+    public List<String> getExclude() {
+        return exclude;
+    }
+
+    public void setExclude(List<String> exclude) {
+        this.exclude = exclude;
+    }
+
+    /*
+     * The 'exclude' patterns compiled once; matched against "<service>:<eventTypeCode>:<region>" of each event.
+     */
+    public synchronized EventExclusionMatcher getExclusionMatcher() {
+        if (exclusionMatcher == null) exclusionMatcher = new EventExclusionMatcher(exclude);
+        return exclusionMatcher;
+    }
+
+    /*
+     * Client side check of the filters a fetch over several profiles can't apply for each of them; regions,
+     * categories and status codes are matched by the event index. The time ranges are checked separately.
+     */
+    public boolean matches(Event event) {
+        return (services == null || services.contains(event.getService()))
+               && (event_type_codes == null || event_type_codes.contains(event.getEventTypeCode()))
+               && (availability_zones == null || availability_zones.contains(event.getAvailabilityZone()))
+               && !getExclusionMatcher().matches(event);
+    }
+
+    /*
+     * Check of the start, end and last updated time ranges. Ranges relative to now move with the clock, so an
+     * event still open can fall out of them; that doesn't make it closed.
+     */
+    public boolean inTimeRanges(Event event) {
+        return inTimeRanges(start_times, event.getStartTime())
+               && inTimeRanges(end_times, event.getEndTime())
+               && inTimeRanges(last_updated_times, event.getLastUpdatedTime());
+    }
+
+    private static boolean inTimeRanges(List<TimeRange> ranges, Date date) {
+        return ranges == null || ranges.stream().anyMatch(i -> i.contains(date));
+    }
+
+    public Integer getEntity_sample_size() {
+        return entity_sample_size;
+    }
+
+    public void setEntity_sample_size(Integer entity_sample_size) {
+        this.entity_sample_size = entity_sample_size;
+    }
+
+    public Integer getFull_reconcile_minutes() {
+        return full_reconcile_minutes;
+    }
+
+    public void setFull_reconcile_minutes(Integer full_reconcile_minutes) {
+        this.full_reconcile_minutes = full_reconcile_minutes;
+    }
+
+    public Integer getShards() {
+        return shards;
+    }
+
+    public void setShards(Integer shards) {
+        this.shards = shards;
+    }
+
+    public String getShard_by() {
+        return shard_by;
+    }
+
+    public void setShard_by(String shard_by) {
+        this.shard_by = shard_by;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<Config> getProfiles() {
+        return profiles;
+    }
+
+    public void setProfiles(List<Config> profiles) {
+        this.profiles = profiles;
+    }
+
+    /*
+     * Profiles to evaluate; settings not set on a profile are taken from the top level. Without a 'profiles'
+     * list the top level settings are the only profile.
+     */
+    public List<Config> getEffectiveProfiles() {
+        List<Config> result = new ArrayList<>();
+        if (profiles == null || profiles.isEmpty()) {
+            if (name == null) name = DEFAULT_PROFILE_NAME;
+            result.add(this);
+            return result;
+        }
+
+        Set<String> names = new HashSet<>();
+        for (Config i : profiles) {
+            if (i.name == null || !names.add(i.name)) {
+                throw new IllegalArgumentException("Each profile needs a unique name: " + i.name);
+            }
+            if (i.regions == null) i.regions = regions;
+            if (i.category == null) i.category = category;
+            if (i.status == null) i.status = status;
+            if (i.tags == null) i.tags = tags;
+            if (i.services == null) i.services = services;
+            if (i.event_type_codes == null) i.event_type_codes = event_type_codes;
+            if (i.availability_zones == null) i.availability_zones = availability_zones;
+            if (i.entity_arns == null) i.entity_arns = entity_arns;
+            if (i.entity_values == null) i.entity_values = entity_values;
+            if (i.start_times == null) i.start_times = start_times;
+            if (i.end_times == null) i.end_times = end_times;
+            if (i.last_updated_times == null) i.last_updated_times = last_updated_times;
+            if (i.exclude == null) i.exclude = exclude;
+            if (i.ses_region == null) i.ses_region = ses_region;
+            if (i.ses_from == null) i.ses_from = ses_from;
+            if (i.ses_send == null) i.ses_send = ses_send;
+            if (i.ses_inline_limit_kb == null) i.ses_inline_limit_kb = ses_inline_limit_kb;
+            if (i.email_template == null) i.email_template = email_template;
+            if (i.sns_topic_arn == null) i.sns_topic_arn = sns_topic_arn;
+            if (i.sns_region == null) i.sns_region = sns_region;
+            if (i.webhook_url == null) i.webhook_url = webhook_url;
+            if (i.priority_categories == null) i.priority_categories = priority_categories;
+            if (i.digest_minutes == null) i.digest_minutes = digest_minutes;
+            result.add(i);
+        }
+        return result;
+    }
+
+    /*
+     * Settings covering the events of all the given profiles (same tag and entity filter), for fetching them in
+     * one pass. A filter is left out when any of the profiles doesn't set it, and only the exclusion patterns
+     * shared by all the profiles are kept.
+     */
+    public static Config union(Collection<Config> profiles) {
+        Set<String> regions = new TreeSet<>();
+        Set<String> category = new TreeSet<>();
+        Set<String> status = new TreeSet<>();
+        Config result = new Config();
+        for (Config i : profiles) {
+            regions.addAll(i.regions);
+            category.addAll(i.category);
+            status.addAll(i.status);
+            result.tags = i.tags;
+            result.entity_arns = i.entity_arns;
+            result.entity_values = i.entity_values;
+        }
+        result.regions = new ArrayList<>(regions);
+        result.category = new ArrayList<>(category);
+        result.status = new ArrayList<>(status);
+        result.services = unionOrNull(profiles, i -> i.services);
+        result.event_type_codes = unionOrNull(profiles, i -> i.event_type_codes);
+        result.availability_zones = unionOrNull(profiles, i -> i.availability_zones);
+        result.start_times = concatOrNull(profiles, i -> i.start_times);
+        result.end_times = concatOrNull(profiles, i -> i.end_times);
+        result.last_updated_times = concatOrNull(profiles, i -> i.last_updated_times);
+
+        List<String> exclude = null;
+        for (Config i : profiles) {
+            if (i.exclude == null) {
+                exclude = null;
+                break;
+            }
+            if (exclude == null) {
+                exclude = new ArrayList<>(i.exclude);
+            } else {
+                exclude.retainAll(i.exclude);
+            }
+        }
+        result.exclude = exclude;
+        return result;
+    }
+
+    private static List<String> unionOrNull(Collection<Config> profiles, Function<Config, List<String>> getter) {
+        Set<String> result = new TreeSet<>();
+        for (Config i : profiles) {
+            if (getter.apply(i) == null) return null;
+            result.addAll(getter.apply(i));
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static List<TimeRange> concatOrNull(Collection<Config> profiles,
+                                                Function<Config, List<TimeRange>> getter) {
+        List<TimeRange> result = new ArrayList<>();
+        for (Config i : profiles) {
+            if (getter.apply(i) == null) return null;
+            result.addAll(getter.apply(i));
+        }
+        return result;
+    }
 }
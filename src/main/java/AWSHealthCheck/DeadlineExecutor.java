@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Stage time budgets against the Lambda remaining time
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.IOException;
+
+/*
+ * Runs the stages of an invocation against Context.getRemainingTimeInMillis(), keeping a reserve for wrapping up
+ * (persisting state or a checkpoint) before the function timeout. Optional stages are skipped when their budget
+ * no longer fits; required stages check hasTime() between units of work and stop early instead.
+ */
+public class DeadlineExecutor {
+    private static final Logger LOGGER = LogManager.getLogger(DeadlineExecutor.class);
+
+    private final Context context;
+    private final long reserveMillis;
+
+    public interface Stage {
+        void run() throws IOException;
+    }
+
+    public DeadlineExecutor(Context context, long reserveMillis) {
+        this.context = context;
+        this.reserveMillis = reserveMillis;
+    }
+
+    public long getRemainingMillis() {
+        return context.getRemainingTimeInMillis() - reserveMillis;
+    }
+
+    public boolean hasTime(long budgetMillis) {
+        return getRemainingMillis() >= budgetMillis;
+    }
+
+    /*
+     * Run the stage only when its budget fits in the remaining time. Returns false when it was skipped.
+     */
+    public boolean runOptional(String stage, long budgetMillis, Stage task) throws IOException {
+        if (!hasTime(budgetMillis)) {
+            LOGGER.warn("Skipping " + stage + ": " + getRemainingMillis() + "ms left, " + budgetMillis + "ms needed");
+            return false;
+        }
+        run(stage, task);
+        return true;
+    }
+
+    public void run(String stage, Stage task) throws IOException {
+        long started = System.currentTimeMillis();
+        task.run();
+        LOGGER.debug(stage + " took " + (System.currentTimeMillis() - started) + "ms, "
+                     + getRemainingMillis() + "ms left");
+    }
+}
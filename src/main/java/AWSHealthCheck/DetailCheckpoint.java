@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Event details fetched by an invocation that ran out of time
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.Event;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * Event details fetched before an invocation stopped short of its deadline, so the next invocation resumes the
+ * detail fetch instead of repeating it. A detail is only reused while the listed event still has the same status
+ * and last updated time.
+ */
+public class DetailCheckpoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long created;
+    private final Map<String, EventDetailWithResources> eventDetails;
+
+    public DetailCheckpoint(Map<String, EventDetailWithResources> eventDetails) {
+        this.created = System.currentTimeMillis();
+        this.eventDetails = new HashMap<>(eventDetails);
+    }
+
+    public boolean isExpired(long maxAgeMillis) {
+        return System.currentTimeMillis() - created > maxAgeMillis;
+    }
+
+    /*
+     * The checkpointed detail of the listed event, or null when there's none or the event changed since.
+     */
+    public EventDetailWithResources take(Event event) {
+        EventDetailWithResources detail = eventDetails.remove(event.getArn());
+        if (detail == null) return null;
+
+        Event fetched = detail.getEventDetail().getEvent();
+        if (!Objects.equals(fetched.getStatusCode(), event.getStatusCode())
+                || !Objects.equals(fetched.getLastUpdatedTime(), event.getLastUpdatedTime())) {
+            return null;
+        }
+        return detail;
+    }
+
+    public int size() {
+        return eventDetails.size();
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Client side exclusion of AWSHealth events
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.Event;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/*
+ * Exclusions the EventFilter can't express, e.g. "EC2:AWS_EC2_.*_SCHEDULED:.*" or ".*:.*_OPERATIONAL_NOTIFICATION:.*".
+ * The patterns are compiled once into a single alternation and matched in full against
+ * "<service>:<eventTypeCode>:<region>" of each event.
+ */
+public class EventExclusionMatcher {
+    private final Pattern pattern;
+
+    public EventExclusionMatcher(List<String> patterns) {
+        if (patterns == null || patterns.isEmpty()) {
+            pattern = null;
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String i : patterns) {
+            if (sb.length() > 0) sb.append('|');
+            sb.append("(?:").append(i).append(')');
+        }
+        pattern = Pattern.compile(sb.toString());
+    }
+
+    public boolean matches(Event event) {
+        return pattern != null && pattern.matcher(getKey(event)).matches();
+    }
+
+    public static String getKey(Event event) {
+        return nullToEmpty(event.getService()) + ":" + nullToEmpty(event.getEventTypeCode()) + ":"
+               + nullToEmpty(event.getRegion());
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Queryable index over the AWSHealth event history
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.Event;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * One compact row per event, kept in gzip TSV partitions by the month of the event start time and sorted by
+ * service, region and start time. Each run rewrites only the partitions with new or changed rows, and queries
+ * read only the partitions overlapping the time range instead of scanning the history result files.
+ */
+public class HealthHistoryIndex {
+    private static final Logger LOGGER = LogManager.getLogger(HealthHistoryIndex.class);
+    private static final DateTimeFormatter PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    public static final String PARTITION_PREFIX = "AWSHealthHistoryIndex_";
+    public static final String PARTITION_NAME = PARTITION_PREFIX + "%s.tsv.gz";
+
+    private final String bucket;
+    private final String region;
+    private final String prefix;
+    private final String localPath;
+
+    public static class Row {
+        private static final Comparator<Row> ORDER = Comparator.comparing((Row r) -> r.service)
+                                                     .thenComparing(r -> r.region)
+                                                     .thenComparingLong(r -> r.startTime)
+                                                     .thenComparing(r -> r.arn);
+        private String arn;
+        private String service;
+        private String region;
+        private String category;
+        private String status;
+        private long startTime;
+        private Long endTime;
+        private Long lastUpdatedTime;
+
+        public static Row of(Event event) {
+            Row row = new Row();
+            row.arn = event.getArn();
+            row.service = nullToEmpty(event.getService());
+            row.region = nullToEmpty(event.getRegion());
+            row.category = nullToEmpty(event.getEventTypeCategory());
+            row.status = nullToEmpty(event.getStatusCode());
+            row.startTime = event.getStartTime() == null ? 0L : event.getStartTime().getTime();
+            row.endTime = event.getEndTime() == null ? null : event.getEndTime().getTime();
+            row.lastUpdatedTime = event.getLastUpdatedTime() == null ? null : event.getLastUpdatedTime().getTime();
+            return row;
+        }
+
+        static Row parse(String line) {
+            String[] fields = line.split("\t", -1);
+            Row row = new Row();
+            row.arn = fields[0];
+            row.service = fields[1];
+            row.region = fields[2];
+            row.category = fields[3];
+            row.status = fields[4];
+            row.startTime = Long.parseLong(fields[5]);
+            row.endTime = fields[6].isEmpty() ? null : Long.parseLong(fields[6]);
+            row.lastUpdatedTime = fields[7].isEmpty() ? null : Long.parseLong(fields[7]);
+            return row;
+        }
+
+        String format() {
+            return arn + "\t" + service + "\t" + region + "\t" + category + "\t" + status + "\t" + startTime + "\t"
+                   + (endTime == null ? "" : endTime) + "\t" + (lastUpdatedTime == null ? "" : lastUpdatedTime);
+        }
+
+        public String getArn() {
+            return arn;
+        }
+
+        public String getService() {
+            return service;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public Long getEndTime() {
+            return endTime;
+        }
+
+        public Long getLastUpdatedTime() {
+            return lastUpdatedTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Row && format().equals(((Row) o).format());
+        }
+
+        @Override
+        public int hashCode() {
+            return format().hashCode();
+        }
+
+        private static String nullToEmpty(String s) {
+            return s == null ? "" : s.replace('\t', ' ');
+        }
+    }
+
+    public interface ChangeHandler {
+        void apply(Map<Row, Row> changes) throws IOException;
+    }
+
+    public HealthHistoryIndex(String bucket, String region, String prefix, String localPath) {
+        this.bucket = bucket;
+        this.region = region;
+        this.prefix = prefix;
+        this.localPath = localPath;
+    }
+
+    /*
+     * Upsert the rows of the given events. Returns the rows that were added or changed, mapped to the row they
+     * replaced (null for events not indexed before). Fails without rewriting a partition that could not be read
+     * in full, as rewriting it from the rows read would drop the rest of its history. The handler gets the changes
+     * before any partition is written, so what it derives from them is saved first and a failed write is retried.
+     */
+    public Map<Row, Row> update(Collection<Event> events, ChangeHandler beforeWrite) throws IOException {
+        Map<String, List<Row>> partitions = new TreeMap<>();
+        for (Event i : events) {
+            Row row = Row.of(i);
+            partitions.computeIfAbsent(getPartition(row.startTime), k -> new ArrayList<>()).add(row);
+        }
+
+        Map<Row, Row> changes = new LinkedHashMap<>();
+        Map<String, Collection<Row>> changedPartitions = new TreeMap<>();
+        for (Map.Entry<String, List<Row>> i : partitions.entrySet()) {
+            Map<String, Row> rows = new HashMap<>();
+            List<Row> read = new ArrayList<>();
+            readPartition(i.getKey(), read);
+            for (Row j : read) {
+                rows.put(j.arn, j);
+            }
+
+            for (Row j : i.getValue()) {
+                Row previous = rows.put(j.arn, j);
+                if (!j.equals(previous)) {
+                    changes.put(j, previous);
+                    changedPartitions.put(i.getKey(), rows.values());
+                }
+            }
+        }
+
+        if (!changes.isEmpty()) beforeWrite.apply(changes);
+        for (Map.Entry<String, Collection<Row>> i : changedPartitions.entrySet()) {
+            writePartition(i.getKey(), i.getValue());
+        }
+
+        LOGGER.debug("History index: " + changes.size() + " row(s) added or changed");
+        return changes;
+    }
+
+    /*
+     * Events started within [from, to), optionally limited to a service and/or region (null matches all). An
+     * unreadable partition is logged and answered with the rows read from it.
+     */
+    public List<Row> query(String service, String eventRegion, Date from, Date to) {
+        List<Row> result = new ArrayList<>();
+        for (String i : getPartitions(from, to)) {
+            List<Row> rows = new ArrayList<>();
+            try {
+                readPartition(i, rows);
+            } catch (IOException e) {
+                LOGGER.error(e.getMessage());
+            }
+            result.addAll(select(rows, service, eventRegion, from, to));
+        }
+        result.sort(Row.ORDER);
+        return result;
+    }
+
+    /*
+     * The rows of the query, in index order.
+     */
+    static List<Row> select(Collection<Row> rows, String service, String eventRegion, Date from, Date to) {
+        List<Row> result = new ArrayList<>();
+        for (Row i : rows) {
+            if (service != null && !service.equalsIgnoreCase(i.service)) continue;
+            if (eventRegion != null && !eventRegion.equalsIgnoreCase(i.region)) continue;
+            if (i.startTime < from.getTime() || i.startTime >= to.getTime()) continue;
+            result.add(i);
+        }
+        result.sort(Row.ORDER);
+        return result;
+    }
+
+    /*
+     * Partitions of the months overlapping [from, to].
+     */
+    static List<String> getPartitions(Date from, Date to) {
+        List<String> partitions = new ArrayList<>();
+        YearMonth month = YearMonth.from(from.toInstant().atZone(ZoneOffset.UTC));
+        YearMonth last = YearMonth.from(to.toInstant().atZone(ZoneOffset.UTC));
+        for (; !month.isAfter(last); month = month.plusMonths(1)) {
+            partitions.add(month.format(PARTITION_FORMAT));
+        }
+        return partitions;
+    }
+
+    private static String getPartition(long startTime) {
+        return YearMonth.from(new Date(startTime).toInstant().atZone(ZoneOffset.UTC)).format(PARTITION_FORMAT);
+    }
+
+    private String getKey(String partition) {
+        return prefix + String.format(PARTITION_NAME, partition);
+    }
+
+    /*
+     * Add the rows of the partition; throws once the partition turns out unreadable, with the rows read so far
+     * added.
+     */
+    private void readPartition(String partition, List<Row> rows) throws IOException {
+        String key = getKey(partition);
+        if (!AWSHelper.S3Helper.doesFileExist(bucket, key, region)) return;
+
+        // A failed download must not leave the copy of an earlier invocation to be read
+        File f = new File(localPath + key);
+        if (f.exists() && !f.delete()) throw new IOException("Unable to delete stale history index " + f);
+        AWSHelper.S3Helper.downloadFile(bucket, localPath + key, key, region);
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(f)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isEmpty()) rows.add(Row.parse(line));
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Unable to read history index " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void writePartition(String partition, Collection<Row> rows) throws IOException {
+        List<Row> sorted = new ArrayList<>(rows);
+        sorted.sort(Row.ORDER);
+
+        String key = getKey(partition);
+        File f = new File(localPath + key);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(f)), StandardCharsets.UTF_8))) {
+            for (Row i : sorted) {
+                writer.write(i.format());
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new IOException("Unable to write history index " + key + ": " + e.getMessage(), e);
+        }
+        AWSHelper.S3Helper.uploadFile(bucket, f, key, region);
+    }
+}
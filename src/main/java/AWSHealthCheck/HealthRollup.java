@@ -0,0 +1,143 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Weekly AWSHealth event rollups
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import java.io.Serializable;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+
+/*
+ * Events opened per service and region, and events closed plus the total open-to-closed time per service, in
+ * weekly buckets (keyed by the Monday of the week, UTC). Updated in place from the history index changes of each
+ * run, so it never has to be recomputed from the history files. Rollups merge by adding up the counters.
+ *
+ * The rollup is written before the index partitions, so a run failing in between leaves rows counted here but
+ * not indexed; the next run reports them as changes again. The rows applied by the last update are kept by ARN
+ * and stand in for the indexed row they changed, so those changes are not counted twice.
+ */
+public class HealthRollup implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final TreeMap<String, Bucket> buckets = new TreeMap<>();
+    // Formatted rows of the last update by ARN; null in rollups stored before it was added
+    private Map<String, String> lastApplied = new HashMap<>();
+
+    public static class Bucket implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, Long> openedByService = new TreeMap<>();
+        private final Map<String, Long> openedByRegion = new TreeMap<>();
+        private final Map<String, Long> closedByService = new TreeMap<>();
+        private final Map<String, Long> resolveMillisByService = new TreeMap<>();
+
+        void merge(Bucket other) {
+            other.openedByService.forEach((k, v) -> openedByService.merge(k, v, Long::sum));
+            other.openedByRegion.forEach((k, v) -> openedByRegion.merge(k, v, Long::sum));
+            other.closedByService.forEach((k, v) -> closedByService.merge(k, v, Long::sum));
+            other.resolveMillisByService.forEach((k, v) -> resolveMillisByService.merge(k, v, Long::sum));
+        }
+
+        public Map<String, Long> getOpenedByService() {
+            return openedByService;
+        }
+
+        public Map<String, Long> getOpenedByRegion() {
+            return openedByRegion;
+        }
+
+        public Map<String, Long> getClosedByService() {
+            return closedByService;
+        }
+
+        public Map<String, Long> getMeanTimeToResolveMillisByService() {
+            Map<String, Long> result = new TreeMap<>();
+            closedByService.forEach((k, v) -> result.put(k, resolveMillisByService.getOrDefault(k, 0L) / v));
+            return result;
+        }
+    }
+
+    /*
+     * Apply the history index changes of a run: rows not indexed before count as opened in the week they
+     * started, rows changing to 'closed' count as closed in the week they ended.
+     */
+    public void update(Map<HealthHistoryIndex.Row, HealthHistoryIndex.Row> changes) {
+        Map<String, String> applied = new HashMap<>();
+        for (Map.Entry<HealthHistoryIndex.Row, HealthHistoryIndex.Row> i : changes.entrySet()) {
+            HealthHistoryIndex.Row row = i.getKey();
+            HealthHistoryIndex.Row previous = i.getValue();
+            applied.put(row.getArn(), row.format());
+
+            // Counted by the last update, whose index write did not go through
+            String lastRow = lastApplied != null ? lastApplied.get(row.getArn()) : null;
+            if (lastRow != null) {
+                previous = HealthHistoryIndex.Row.parse(lastRow);
+                if (row.equals(previous)) continue;
+            }
+
+            if (previous == null) {
+                Bucket bucket = getBucket(row.getStartTime());
+                bucket.openedByService.merge(row.getService(), 1L, Long::sum);
+                bucket.openedByRegion.merge(row.getRegion(), 1L, Long::sum);
+            }
+
+            if ("closed".equals(row.getStatus()) && (previous == null || !"closed".equals(previous.getStatus()))) {
+                long closedTime = row.getEndTime() != null ? row.getEndTime()
+                                  : row.getLastUpdatedTime() != null ? row.getLastUpdatedTime() : row.getStartTime();
+                Bucket bucket = getBucket(closedTime);
+                bucket.closedByService.merge(row.getService(), 1L, Long::sum);
+                bucket.resolveMillisByService.merge(row.getService(),
+                                                    Math.max(0L, closedTime - row.getStartTime()), Long::sum);
+            }
+        }
+        lastApplied = applied;
+    }
+
+    public void merge(HealthRollup other) {
+        other.buckets.forEach((k, v) -> buckets.computeIfAbsent(k, j -> new Bucket()).merge(v));
+        if (other.lastApplied != null) lastApplied.putAll(other.lastApplied);
+    }
+
+    /*
+     * Buckets of the weeks overlapping [from, to).
+     */
+    public SortedMap<String, Bucket> getBuckets(Date from, Date to) {
+        return buckets.subMap(getBucketKey(from.getTime()), getBucketKey(to.getTime() - 1) + "\0");
+    }
+
+    public SortedMap<String, Bucket> getBuckets() {
+        return buckets;
+    }
+
+    private Bucket getBucket(long time) {
+        return buckets.computeIfAbsent(getBucketKey(time), k -> new Bucket());
+    }
+
+    private static String getBucketKey(long time) {
+        LocalDate day = Instant.ofEpochMilli(time).atZone(ZoneOffset.UTC).toLocalDate();
+        return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toString();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Events fetched once per run, indexed for selecting each profile's events
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.Event;
+import java.io.Serializable;
+import java.util.*;
+
+/*
+ * Events are indexed by region, category and status code, and by the tag and entity filter of the describeEvents
+ * call that returned them (those can only be matched server side). The other filters of a profile are checked
+ * on selection. Read-only once built, so profiles can be evaluated against it in parallel.
+ */
+public class IndexedEvents implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Event> events = new LinkedHashMap<>();
+    private final Map<String, Set<String>> byRegion = new HashMap<>();
+    private final Map<String, Set<String>> byCategory = new HashMap<>();
+    private final Map<String, Set<String>> byStatus = new HashMap<>();
+    private final Map<String, Set<String>> byFetchKey = new HashMap<>();
+
+    public void add(Collection<Event> fetched, Config fetchGroup) {
+        String fetchKey = getFetchKey(fetchGroup);
+        for (Event i : fetched) {
+            events.put(i.getArn(), i);
+            byRegion.computeIfAbsent(i.getRegion(), k -> new HashSet<>()).add(i.getArn());
+            byCategory.computeIfAbsent(i.getEventTypeCategory(), k -> new HashSet<>()).add(i.getArn());
+            byStatus.computeIfAbsent(i.getStatusCode(), k -> new HashSet<>()).add(i.getArn());
+            byFetchKey.computeIfAbsent(fetchKey, k -> new HashSet<>()).add(i.getArn());
+        }
+    }
+
+    /*
+     * Merge the events fetched by another shard.
+     */
+    public void addAll(IndexedEvents other) {
+        events.putAll(other.events);
+        merge(byRegion, other.byRegion);
+        merge(byCategory, other.byCategory);
+        merge(byStatus, other.byStatus);
+        merge(byFetchKey, other.byFetchKey);
+    }
+
+    /*
+     * Events matching the profile apart from its time ranges, in describeEvents order.
+     */
+    public List<Event> select(Config profile) {
+        Set<String> arns = new HashSet<>(byFetchKey.getOrDefault(getFetchKey(profile), Collections.emptySet()));
+        arns.retainAll(lookup(byRegion, profile.getRegions()));
+        arns.retainAll(lookup(byCategory, profile.getCategory()));
+        arns.retainAll(lookup(byStatus, profile.getStatus()));
+
+        List<Event> result = new ArrayList<>();
+        for (Event i : events.values()) {
+            if (arns.contains(i.getArn()) && profile.matches(i)) result.add(i);
+        }
+        return result;
+    }
+
+    public Collection<Event> getEvents() {
+        return events.values();
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    /*
+     * Key of the server side only filters; profiles with the same key can be fetched together. Profiles including
+     * 'closed' events get their own fetch, limited to the last months of events, apart from the ones relying on
+     * every open and upcoming event being listed.
+     */
+    public static String getFetchKey(Config profile) {
+        return getTagFilterKey(profile.getTags()) + "|" + getListKey(profile.getEntity_arns()) + "|"
+               + getListKey(profile.getEntity_values()) + "|" + profile.getStatus().contains("closed");
+    }
+
+    public static String getTagFilterKey(Collection<Map<String, String>> tags) {
+        if (tags == null || tags.isEmpty()) return "";
+        List<String> keys = new ArrayList<>();
+        for (Map<String, String> i : tags) {
+            keys.add(new TreeMap<>(i).toString());
+        }
+        Collections.sort(keys);
+        return keys.toString();
+    }
+
+    private static String getListKey(Collection<String> values) {
+        return values == null || values.isEmpty() ? "" : new TreeSet<>(values).toString();
+    }
+
+    private static void merge(Map<String, Set<String>> index, Map<String, Set<String>> other) {
+        other.forEach((k, v) -> index.computeIfAbsent(k, j -> new HashSet<>()).addAll(v));
+    }
+
+    private static Set<String> lookup(Map<String, Set<String>> index, Collection<String> values) {
+        Set<String> result = new HashSet<>();
+        if (values == null) return result;
+        for (String i : values) {
+            result.addAll(index.getOrDefault(i, Collections.emptySet()));
+        }
+        return result;
+    }
+}
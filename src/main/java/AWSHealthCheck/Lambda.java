@@ -24,36 +24,44 @@
  */
 package AWSHealthCheck;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
 import com.amazonaws.services.health.model.AffectedEntity;
 import com.amazonaws.services.health.model.DateTimeRange;
 import com.amazonaws.services.health.model.EventDetails;
+import com.amazonaws.services.health.model.EventFilter;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.health.model.Event;
 import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
-import com.amazonaws.services.simpleemail.model.RawMessage;
+import com.amazonaws.util.json.Jackson;
+import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
-import javax.mail.Message;
-import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeBodyPart;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class Lambda implements RequestStreamHandler {
@@ -61,117 +69,493 @@ public class Lambda implements RequestStreamHandler {
     private static final String REGION = System.getenv("DEFAULT_REGION");
     private static final String BUCKET = System.getenv("BUCKET");
     private static final String PERSIST_FILE_PATH = "/tmp/";
-    private static final String PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT =
-                                AWSHelper.OrganizationHelper.getAccountName(AWSHelper.STSHelper.getAccountID())
-                                + "EventsNotificationSent.ser";
-    private static final String PERSIST_HASH_RESULT =
-                                AWSHelper.OrganizationHelper.getAccountName(AWSHelper.STSHelper.getAccountID())
-                                + "AWSHealthCheckHashResult.txt";
-    private static final String PERSIST_FILE_NAME =
-                                AWSHelper.OrganizationHelper.getAccountName(AWSHelper.STSHelper.getAccountID())
-                                + "AWSHealthCheckResultEvents_%s.txt";
+    private static final String ACCOUNT_NAME =
+                                AWSHelper.OrganizationHelper.getAccountName(AWSHelper.STSHelper.getAccountID());
+    private static final String PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT = ACCOUNT_NAME + "EventsNotificationSent.ser";
+    private static final String PERSIST_HASH_RESULT = ACCOUNT_NAME + "AWSHealthCheckHashResult.txt";
+    private static final String PERSIST_FILE_NAME = ACCOUNT_NAME + "AWSHealthCheckResultEvents_%s.txt";
+    private static final String PERSIST_AFFECTED_ENTITIES_NAME = ACCOUNT_NAME + "AffectedEntities_%s.txt.gz";
+    private static final String PERSIST_DIGEST_HASH_RESULT = ACCOUNT_NAME + "AWSHealthCheckDigestHashResult.txt";
+    private static final String PERSIST_PROBE_RESULT = ACCOUNT_NAME + "AWSHealthCheckProbeResult.txt";
+    private static final String PERSIST_ROLLUP = ACCOUNT_NAME + "AWSHealthRollup.ser";
+    private static final String PERSIST_RETRY_QUEUE = ACCOUNT_NAME + "AWSHealthCheckRetryQueue.ser";
+    private static final String PERSIST_LEASE = ACCOUNT_NAME + "AWSHealthCheckLease.txt";
+    private static final String PERSIST_SHARD_RESULT = ACCOUNT_NAME + "AWSHealthCheckShard_%s_%d.ser";
+    private static final String PERSIST_DETAIL_CHECKPOINT = ACCOUNT_NAME + "AWSHealthCheckDetailCheckpoint.ser";
+    private static final String PERSIST_PENDING_HISTORY = ACCOUNT_NAME + "AWSHealthCheckPendingHistory.ser";
+    private static final String HISTORY_QUERY = "historyQuery";
+    private static final String SHARD = "shard";
+    private static final String SHARDS = "shards";
+    private static final String GENERATION = "generation";
+    private static final String SHARD_BY_CATEGORY = "category";
+    private static final long SHARD_WAIT_MARGIN_MILLIS = 15000L;
+    private static final long SHARD_POLL_MILLIS = 1000L;
+    // Shard results left over by workers finishing after the coordinator gave up; no invocation outlives this
+    private static final long SHARD_RESULT_MAX_AGE_MILLIS = 15 * 60 * 1000L;
+    // Affected entity lists not rewritten for this long belong to events no longer fetched
+    private static final long AFFECTED_ENTITIES_MAX_AGE_MILLIS = 30 * 24 * 60 * 60 * 1000L;
+    private static final String ROLLUP_QUERY = "rollupQuery";
     private static final Integer MAX_FETCH_MONTHS_PERIOD = 3;
+    private static final Integer DEFAULT_FULL_RECONCILE_MINUTES = 60;
+    private static final Integer MAX_PROFILE_THREADS = 4;
+    private static final Integer DEFAULT_ENTITY_SAMPLE_SIZE = 100;
+    private static final Integer DEFAULT_NOTIFICATION_TIMEOUT_SECONDS = 10;
+    private static final Integer DEFAULT_DIGEST_MINUTES = 60;
+    // Time kept back from every stage for persisting the state or the checkpoint before the function timeout
+    private static final long DEADLINE_RESERVE_MILLIS = 3000L;
+    private static final long NOTIFY_STAGE_MARGIN_MILLIS = 5000L;
+    private static final long HISTORY_STAGE_MILLIS = 10000L;
+    private static final long HOUSEKEEPING_STAGE_MILLIS = 5000L;
+    private static final long DETAIL_CHECKPOINT_MAX_AGE_MILLIS = 60 * 60 * 1000L;
+    private static final List<String> DEFAULT_PRIORITY_CATEGORIES = Collections.singletonList("issue");
+    private static final String NOTIFICATION_SUBJECT = "[aws-lambda-java-AWSHealth-check] Found new health events";
+    private static final String DIGEST_SUBJECT = "[aws-lambda-java-AWSHealth-check] Health events digest";
     private Config config;
+    private HealthHistoryIndex historyIndex;
+    private final NotificationSinkFactory sinkFactory;
+    private ArnBatchPlanner arnBatchPlanner;
+    private Map<String, EventDetailWithResources> eventDetailCache;
+    private RetryQueue retryQueue;
+    private DeadlineExecutor deadline;
+    private DetailCheckpoint detailCheckpoint;
+    private boolean detailsComplete;
+    private int entitySampleSize;
+
+    // Priority events are notified right away, the others are collected into a periodic digest
+    private enum Lane { PRIORITY, DIGEST }
+
+    private static class LaneResult {
+        private final String events;
+        private boolean held = false;
+        // When the held digest is due, from the time the last one was sent
+        private long dueAt = 0L;
+
+        LaneResult(String events) {
+            this.events = events;
+        }
+    }
 
-    // EventDetail with affected list of resources
-    class EventDetailWithResources {
-        private EventDetails eventDetail;
-        private List<AffectedEntity> eventResources = new ArrayList<>();
+    private interface ProfileTask {
+        void run(Config profile) throws IOException;
+    }
 
-        EventDetailWithResources(EventDetails e) {
-            this.eventDetail = e;
+    public void handleRequest(InputStream inputStream, OutputStream outputStream,
+                              Context context) throws IOException {
+        // Answer history queries from the index instead of checking for new events
+        Map<String, Object> request = parseRequest(inputStream);
+        if (request.get(HISTORY_QUERY) instanceof Map) {
+            queryHistory((Map<String, Object>) request.get(HISTORY_QUERY), outputStream);
+            return;
+        }
+        if (request.get(ROLLUP_QUERY) instanceof Map) {
+            queryRollup((Map<String, Object>) request.get(ROLLUP_QUERY), outputStream);
+            return;
         }
 
-        EventDetails getEventDetail() {
-            return eventDetail;
+        arnBatchPlanner = new ArnBatchPlanner();
+        eventDetailCache = new HashMap<>();
+        deadline = new DeadlineExecutor(context, DEADLINE_RESERVE_MILLIS);
+        detailCheckpoint = null;
+        detailsComplete = true;
+        entitySampleSize = config.getEntity_sample_size() != null ? config.getEntity_sample_size()
+                                                                   : DEFAULT_ENTITY_SAMPLE_SIZE;
+
+        // Invoked by the run coordinator to fetch one shard of the events
+        if (request.get(SHARD) instanceof Number) {
+            fetchShard(((Number) request.get(SHARD)).intValue(), ((Number) request.get(SHARDS)).intValue(),
+                       String.valueOf(request.get(GENERATION)));
+            return;
         }
 
-        List<AffectedEntity> getEventResources() {
-            return eventResources;
+        // Only the lease holder reads and updates the state in the bucket
+        StateLease lease = new StateLease(BUCKET, REGION, PERSIST_LEASE, context.getAwsRequestId());
+        if (!lease.acquire(context.getRemainingTimeInMillis())) {
+            LOGGER.info("Another invocation is checking AWS Health events; skipping this run.");
+            return;
+        }
+        try {
+            checkAWSHealthEvents(context);
+        } finally {
+            lease.release();
         }
     }
 
-    public void handleRequest(InputStream inputStream, OutputStream outputStream,
-                              Context context) throws IOException {
-        List<Event> resultEvents = new ArrayList<>();
+    private void checkAWSHealthEvents(Context context) throws IOException {
+        List<Config> profiles = config.getEffectiveProfiles();
+        long notifyStageMillis = getNotifyStageMillis(profiles);
+        retryQueue = loadRetryQueue();
+        deadline.runOptional("notification retries", notifyStageMillis, () -> retryNotifications(profiles));
 
-        String events = getAWSHealthEvents(resultEvents);
+        Collection<Config> fetchGroups = getFetchGroups(profiles);
 
-        /* Track the list of events that had notifications sent out; we'll need them in case describeEvents call
-         * have filter for excluding 'closed' events since the users will want 'event closed' notifications
-         * when they're closed.
+        // Resume the detail fetch of a run that stopped short of its deadline
+        detailCheckpoint = loadDetailCheckpoint();
+
+        // Skip the full run when the cheap probe shows nothing moved since the last one
+        ChangeProbe probe = probeAWSHealthEvents(fetchGroups);
+        if (probe != null && detailCheckpoint == null && probe.canSkip(loadProbe(), getFullReconcileMillis())) {
+            LOGGER.info("No AWS Health changes found since the last run; skipping full check.");
+            return;
+        }
+
+        // Fetch the union of the events of all profiles once, split across shards when configured
+        int shards = config.getShards() != null ? config.getShards() : 1;
+        IndexedEvents indexedEvents;
+        if (shards > 1) {
+            indexedEvents = getShardedAWSHealthEvents(fetchGroups, shards, context);
+            if (indexedEvents == null) return;
+        } else {
+            // Only the priority lane details are fetched along with the pages, the digest lane waits its turn
+            indexedEvents = getAWSHealthEvents(fetchGroups, i -> profiles.stream().anyMatch(j -> isPriority(j, i)),
+                                               notifyStageMillis);
+        }
+        if (indexedEvents == null) {
+            persistDetailCheckpoint();
+            return;
+        }
+
+        Map<Config, List<Event>> profileEvents = new HashMap<>();
+        Map<Config, List<Event>> profileClosedEvents = new HashMap<>();
+        Map<Config, List<Event>> profileOutOfRangeEvents = new HashMap<>();
+        List<String> priorityArns = new ArrayList<>();
+        List<String> digestArns = new ArrayList<>();
+        for (Config i : profiles) {
+            // Events out of the profile's time ranges aren't notified, but they aren't closed either
+            List<Event> currentEvents = indexedEvents.select(i);
+            List<Event> resultEvents = currentEvents.stream().filter(i::inTimeRanges).collect(Collectors.toList());
+            List<Event> pastEvents = loadPastEvents(i);
+            List<Event> recentlyClosedEvents = getRecentlyClosedEvents(pastEvents, currentEvents);
+            profileEvents.put(i, resultEvents);
+            profileClosedEvents.put(i, recentlyClosedEvents);
+            profileOutOfRangeEvents.put(i, getOutOfRangeEvents(i, pastEvents, currentEvents));
+            for (Event j : resultEvents) {
+                (isPriority(i, j) ? priorityArns : digestArns).add(j.getArn());
+            }
+            for (Event j : recentlyClosedEvents) {
+                (isPriority(i, j) ? priorityArns : digestArns).add(j.getArn());
+            }
+        }
+
+        /*
+         * Priority lane first: fetch only the details of the priority events (issues by default) and notify
+         * them right away, before doing any work for the digest lane.
          */
-        if (!config.getStatus().contains("closed")) {
-            try {
-                List<Event> pastEvent = loadEvents();
-                Set<String> s1;
-                if (pastEvent != null) {
-                    s1 = new HashSet<>(pastEvent.stream().map(Event::getArn).collect(Collectors.toList()));
-                } else {
-                    s1 = new HashSet<>();
-                }
-                Set<String> s2;
-                if (resultEvents != null) {
-                    s2 = new HashSet<>(resultEvents.stream().map(Event::getArn).collect(Collectors.toList()));
+        if (!fetchEventDetails(priorityArns, notifyStageMillis)) {
+            persistDetailCheckpoint();
+            return;
+        }
+        Map<Config, LaneResult> priorityResults = new ConcurrentHashMap<>();
+        boolean succeeded = evaluateProfiles(profiles, i -> priorityResults.put(i, evaluateLane(i, Lane.PRIORITY,
+                filterLane(i, Lane.PRIORITY, profileEvents.get(i)),
+                filterLane(i, Lane.PRIORITY, profileClosedEvents.get(i)))));
+
+        // Digest lane with its own state and cadence, then the per profile state of the run
+        if (!fetchEventDetails(digestArns, notifyStageMillis)) {
+            persistDetailCheckpoint();
+            return;
+        }
+        AtomicLong digestDueAt = new AtomicLong(Long.MAX_VALUE);
+        succeeded &= evaluateProfiles(profiles, i -> {
+            List<Event> digestClosedEvents = filterLane(i, Lane.DIGEST, profileClosedEvents.get(i));
+            LaneResult digestResult = evaluateLane(i, Lane.DIGEST, filterLane(i, Lane.DIGEST, profileEvents.get(i)),
+                                                   digestClosedEvents);
+            LaneResult priorityResult = priorityResults.get(i);
+            if (digestResult.held) digestDueAt.accumulateAndGet(digestResult.dueAt, Math::min);
+
+            // Persist event results for keeping history
+            persistEventResult(i, (priorityResult != null ? priorityResult.events : "") + digestResult.events);
+
+            /*
+             * Overwrite with the current 'open' event list; notified events out of the time ranges now, and closed
+             * events held back for the next digest or not notified because the priority lane failed, stay on the
+             * list so they're reported as closed later.
+             */
+            if (!i.getStatus().contains("closed")) {
+                List<Event> sentEvents = new ArrayList<>(profileEvents.get(i));
+                sentEvents.addAll(profileOutOfRangeEvents.get(i));
+                if (digestResult.held) sentEvents.addAll(digestClosedEvents);
+                if (priorityResult == null) {
+                    sentEvents.addAll(filterLane(i, Lane.PRIORITY, profileClosedEvents.get(i)));
                 }
-                else {
-                    s2 = new HashSet<>();
+                persistEvents(i, sentEvents);
+            }
+        });
+
+        /*
+         * A failed profile has to be evaluated again in the next run; a held digest stops the following runs
+         * from skipping once it is due.
+         */
+        if (probe != null && succeeded) {
+            persistProbe(digestDueAt.get() == Long.MAX_VALUE ? probe : probe.withDigestDueAt(digestDueAt.get()));
+        }
+        if (detailCheckpoint != null) {
+            AWSHelper.S3Helper.deleteFiles(BUCKET, REGION, Collections.singletonList(PERSIST_DETAIL_CHECKPOINT));
+        }
+
+        /*
+         * Index every event seen in this run, roll up the changes and conduct bucket housekeeping; optional, the
+         * next run catches up on whatever is skipped when time runs short. Events closed in this run are off the
+         * notified list already, so the events of a skipped or failed index update are kept for the next one.
+         */
+        List<Event> seenEvents = eventDetailCache.values().stream().map(i -> i.getEventDetail().getEvent())
+                                                 .collect(Collectors.toList());
+        List<Event> pendingEvents = loadPendingHistory();
+        boolean indexed;
+        try {
+            indexed = deadline.runOptional("history index", HISTORY_STAGE_MILLIS, () -> {
+                // The rollup is saved before the index, so changes of a failed index write are rolled up again
+                historyIndex.update(mergeEvents(pendingEvents, seenEvents), this::updateRollup);
+                if (!pendingEvents.isEmpty()) {
+                    AWSHelper.S3Helper.deleteFiles(BUCKET, REGION,
+                                                   Collections.singletonList(PERSIST_PENDING_HISTORY));
                 }
-                s1.removeAll(s2); // List of events that was closed since the last notification
-                List<String> recentlyClosedEvents = new ArrayList<>(s1);
+            });
+        } catch (IOException | SdkClientException e) {
+            LOGGER.error("Unable to update the history index, retrying in the next run: " + e.getMessage());
+            indexed = false;
+        }
+        if (!indexed) persistPendingHistory(mergeEvents(pendingEvents, seenEvents));
+        deadline.runOptional("housekeeping", HOUSEKEEPING_STAGE_MILLIS, () -> truncateEventResultsFromS3(profiles));
+    }
 
-                events += getDetaildEventDescriptionWithAffectedResources(recentlyClosedEvents,
-                                                                          resultEvents.size() + 1);
-            } catch (IOException | ClassNotFoundException e) {
-                LOGGER.error(e.getMessage());
+    /*
+     * Time to evaluate and notify one lane of all the profiles, MAX_PROFILE_THREADS at a time.
+     */
+    private long getNotifyStageMillis(List<Config> profiles) {
+        int timeoutSeconds = config.getNotification_timeout_seconds() != null
+                             ? config.getNotification_timeout_seconds() : DEFAULT_NOTIFICATION_TIMEOUT_SECONDS;
+        int rounds = (profiles.size() + MAX_PROFILE_THREADS - 1) / MAX_PROFILE_THREADS;
+        return rounds * (timeoutSeconds * 1000L + NOTIFY_STAGE_MARGIN_MILLIS);
+    }
+
+    /*
+     * Run the task for each profile in parallel; the fetched event details are only read while they run.
+     * Returns false when the task failed for any profile.
+     */
+    private boolean evaluateProfiles(List<Config> profiles, ProfileTask task) {
+        boolean succeeded = true;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(profiles.size(), MAX_PROFILE_THREADS));
+        Map<Config, Future<Void>> futures = new LinkedHashMap<>();
+        for (Config i : profiles) {
+            futures.put(i, executor.submit(() -> {
+                task.run(i);
+                return null;
+            }));
+        }
+        executor.shutdown();
+        for (Map.Entry<Config, Future<Void>> i : futures.entrySet()) {
+            try {
+                i.getValue().get();
+            } catch (InterruptedException | ExecutionException e) {
+                LOGGER.error("Profile " + i.getKey().getName() + " failed: " + e.getMessage());
+                succeeded = false;
             }
         }
+        return succeeded;
+    }
+
+    private boolean isPriority(Config profile, Event event) {
+        List<String> categories = profile.getPriority_categories() != null ? profile.getPriority_categories()
+                                                                           : DEFAULT_PRIORITY_CATEGORIES;
+        return categories.contains(event.getEventTypeCategory());
+    }
+
+    private List<Event> filterLane(Config profile, Lane lane, List<Event> events) {
+        return events.stream().filter(i -> isPriority(profile, i) == (lane == Lane.PRIORITY))
+                     .collect(Collectors.toList());
+    }
+
+    /*
+     * Render the events of the lane and notify when they changed since the last notification of the lane. The
+     * priority lane notifies right away; the digest lane at most once per digest_minutes, changes in between
+     * are held until the digest is due.
+     */
+    private LaneResult evaluateLane(Config profile, Lane lane, List<Event> resultEvents,
+                                    List<Event> recentlyClosedEvents) throws IOException {
+        String events = getDetaildEventDescriptionWithAffectedResources(
+                        resultEvents.stream().map(Event::getArn).collect(Collectors.toList()), 1);
+        events += getDetaildEventDescriptionWithAffectedResources(
+                  recentlyClosedEvents.stream().map(Event::getArn).collect(Collectors.toList()),
+                  resultEvents.size() + 1);
+        LaneResult result = new LaneResult(events);
 
         // Check if new events are found since the last notification
         if (events.trim().length() > 0) {
+            String hashResult = getStateFileName(lane == Lane.PRIORITY ? PERSIST_HASH_RESULT
+                                                                       : PERSIST_DIGEST_HASH_RESULT, profile);
             String shaHash = getSHAHash(events);
             String shaHashOnFile = "";
+            long lastSent = 0L;
 
-            if (AWSHelper.S3Helper.doesFileExist(BUCKET, PERSIST_HASH_RESULT, REGION)) {
-                AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH + PERSIST_HASH_RESULT,
-                                                PERSIST_HASH_RESULT, REGION);
-                shaHashOnFile = readFileContents(PERSIST_FILE_PATH + PERSIST_HASH_RESULT);
+            if (AWSHelper.S3Helper.doesFileExist(BUCKET, hashResult, REGION)) {
+                AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH + hashResult, hashResult, REGION);
+                shaHashOnFile = readFileContents(PERSIST_FILE_PATH + hashResult);
             }
 
-            if (shaHash.compareTo(shaHashOnFile) != 0) {
-                // Send notification and persist the new hash result.
-                writeFileContents(PERSIST_FILE_PATH + PERSIST_HASH_RESULT, shaHash);
-                File f = new File(PERSIST_FILE_PATH + PERSIST_HASH_RESULT);
-                AWSHelper.S3Helper.uploadFile(BUCKET, f, PERSIST_HASH_RESULT, REGION);
-
-                String emailContent = String.format(config.getEmail_template(), events);
-
-                RawMessage rawMessage = prepareRawMessage(emailContent);
-
-                if (rawMessage != null) {
-                    AWSHelper.SESHelper.sendRawEmail(config.getSes_from(), config.getSes_send(), rawMessage,
-                                                     config.getSes_region());
-                    LOGGER.info(String.format("Sending email to %s\n", config.getSes_send()));
+            // The digest hash is stored as "<last sent epoch millis>|<hash>"; an unreadable time makes it due
+            if (lane == Lane.DIGEST && shaHashOnFile.contains("|")) {
+                try {
+                    lastSent = Long.parseLong(shaHashOnFile.substring(0, shaHashOnFile.indexOf('|')));
+                } catch (NumberFormatException e) {
+                    LOGGER.error("Invalid digest hash result " + hashResult + ": " + shaHashOnFile);
                 }
+                shaHashOnFile = shaHashOnFile.substring(shaHashOnFile.indexOf('|') + 1);
+            }
+
+            if (shaHash.compareTo(shaHashOnFile) != 0 && lane == Lane.DIGEST
+                    && System.currentTimeMillis() - lastSent < getDigestMillis(profile)) {
+                LOGGER.info("Digest changes for " + profile.getName() + " held until the next digest is due.");
+                result.held = true;
+                result.dueAt = lastSent + getDigestMillis(profile);
+            } else if (shaHash.compareTo(shaHashOnFile) != 0) {
+                String emailContent = String.format(profile.getEmail_template(), events);
+                Notification notification = new Notification(profile.getName(), lane.name(), shaHash,
+                                                              lane == Lane.PRIORITY ? NOTIFICATION_SUBJECT
+                                                                                    : DIGEST_SUBJECT,
+                                                              emailContent);
+
+                /*
+                 * Send notification; failed sinks are queued for retry on the following runs, and the new hash
+                 * result is persisted once the notification is delivered or durably queued
+                 */
+                getDispatcher(profile).deliver(notification, retryQueue, this::persistRetryQueue, () -> {
+                    writeFileContents(PERSIST_FILE_PATH + hashResult, lane == Lane.PRIORITY ? shaHash
+                                                                      : System.currentTimeMillis() + "|" + shaHash);
+                    File f = new File(PERSIST_FILE_PATH + hashResult);
+                    AWSHelper.S3Helper.uploadFile(BUCKET, f, hashResult, REGION);
+                });
 
                 LOGGER.info(emailContent);
             } else {
-                LOGGER.info("No new AWS Health events found since the last notification.");
+                LOGGER.info("No new AWS Health events found since the last " + lane.name().toLowerCase()
+                            + " notification for " + profile.getName());
             }
         } else {
-            LOGGER.info("No new AWS Health events found since the last notification.");
+            LOGGER.info("No new AWS Health events found since the last " + lane.name().toLowerCase()
+                        + " notification for " + profile.getName());
         }
+        return result;
+    }
 
-        // Persist event results for keeping history and conduct bucket housekeeping
-        persistEventResult(events);
-        truncateEventResultsFromS3();
+    private long getDigestMillis(Config profile) {
+        Integer minutes = profile.getDigest_minutes() != null ? profile.getDigest_minutes()
+                                                              : DEFAULT_DIGEST_MINUTES;
+        return minutes * 60L * 1000L;
+    }
 
-        // Overwrite with the current 'open' event list
-        if (!config.getStatus().contains("closed")) persistEvents(resultEvents);
+    private NotificationDispatcher getDispatcher(Config profile) {
+        int timeoutMillis = (config.getNotification_timeout_seconds() != null
+                             ? config.getNotification_timeout_seconds() : DEFAULT_NOTIFICATION_TIMEOUT_SECONDS) * 1000;
+        return new NotificationDispatcher(sinkFactory.getSinks(profile, timeoutMillis), timeoutMillis);
+    }
+
+    /*
+     * SES, SNS and webhook sinks set up for the profile
+     */
+    private static List<NotificationSink> getConfiguredSinks(Config profile, int timeoutMillis) {
+        List<NotificationSink> sinks = new ArrayList<>();
+        if (profile.getSes_send() != null && !profile.getSes_send().trim().isEmpty()) {
+            int inlineLimitBytes = profile.getSes_inline_limit_kb() != null
+                                   ? profile.getSes_inline_limit_kb() * 1024
+                                   : SesMessageBuilder.DEFAULT_INLINE_LIMIT_BYTES;
+            sinks.add(new SesSink(profile.getSes_from(), profile.getSes_send(), profile.getSes_region(),
+                                  inlineLimitBytes));
+        }
+        if (profile.getSns_topic_arn() != null) {
+            sinks.add(new SnsSink(profile.getSns_topic_arn(), profile.getSns_region() != null
+                                                              ? profile.getSns_region() : profile.getSes_region()));
+        }
+        if (profile.getWebhook_url() != null) {
+            sinks.add(new WebhookSink(profile.getWebhook_url(), timeoutMillis));
+        }
+        return sinks;
+    }
+
+    /*
+     * Retry the queued deliveries of the previous runs
+     */
+    private void retryNotifications(List<Config> profiles) throws IOException {
+        if (retryQueue.isEmpty()) return;
+
+        Map<String, Config> profilesByName = new HashMap<>();
+        for (Config i : profiles) {
+            profilesByName.put(i.getName(), i);
+        }
+        // Entries still backing off wait for a later run
+        for (RetryQueue.Entry i : retryQueue.getDueEntries(System.currentTimeMillis())) {
+            // Entries left over stay queued for the next run
+            if (!deadline.hasTime(getNotifyStageMillis(Collections.singletonList(config)))) break;
+
+            Config profile = profilesByName.get(i.getNotification().getProfile());
+            if (profile != null
+                && getDispatcher(profile).retry(i.getSink(), i.getNotification(), i.getDeliveredParts())) {
+                retryQueue.remove(i);
+            } else if (!retryQueue.retryFailed(i)) {
+                LOGGER.error("Giving up delivering to " + i.getSink() + " for " + i.getNotification().getProfile()
+                             + " after " + RetryQueue.MAX_ATTEMPTS + " attempts");
+            }
+        }
+        persistRetryQueue();
     }
 
     public Lambda() {
+        this(Lambda::getConfiguredSinks);
+    }
+
+    Lambda(NotificationSinkFactory sinkFactory) {
         config = loadConfig();
+        historyIndex = new HealthHistoryIndex(BUCKET, REGION, ACCOUNT_NAME, PERSIST_FILE_PATH);
+        this.sinkFactory = sinkFactory;
+    }
+
+    private Map<String, Object> parseRequest(InputStream inputStream) throws IOException {
+        String input = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+        if (input.trim().isEmpty()) return new HashMap<>();
+        try {
+            Map<String, Object> request = Jackson.fromJsonString(input, Map.class);
+            return request != null ? request : new HashMap<>();
+        } catch (SdkClientException e) {
+            LOGGER.error("Unable to parse the request: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    /*
+     * Query the history index, e.g.
+     * {"historyQuery": {"service": "RDS", "region": "eu-west-1", "from": "2019-01-01", "to": "2019-02-01"}}
+     * Matches events started within [from, to); 'to' defaults to now and 'from' to a month before 'to'.
+     */
+    private void queryHistory(Map<String, Object> query, OutputStream outputStream) throws IOException {
+        Date to = query.get("to") != null ? parseDate(query.get("to").toString()) : new Date();
+        Date from = query.get("from") != null ? parseDate(query.get("from").toString())
+                                              : Date.from(to.toInstant().atZone(ZoneOffset.UTC)
+                                                            .minusMonths(1).toInstant());
+        String service = query.get("service") != null ? query.get("service").toString() : null;
+        String eventRegion = query.get("region") != null ? query.get("region").toString() : null;
+
+        List<HealthHistoryIndex.Row> rows = historyIndex.query(service, eventRegion, from, to);
+        LOGGER.info("History query " + query + " matched " + rows.size() + " event(s)");
+        outputStream.write(Jackson.toJsonString(rows).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * Weekly rollup buckets overlapping the time range, e.g. {"rollupQuery": {"from": "2019-01-01"}}
+     * 'to' defaults to now and 'from' to three months before 'to'.
+     */
+    private void queryRollup(Map<String, Object> query, OutputStream outputStream) throws IOException {
+        Date to = query.get("to") != null ? parseDate(query.get("to").toString()) : new Date();
+        Date from = query.get("from") != null ? parseDate(query.get("from").toString())
+                                              : Date.from(to.toInstant().atZone(ZoneOffset.UTC)
+                                                            .minusMonths(MAX_FETCH_MONTHS_PERIOD).toInstant());
+        HealthRollup rollup = loadRollup();
+        outputStream.write(Jackson.toJsonString(rollup.getBuckets(from, to)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Date parseDate(String date) {
+        if (date.length() == 10) {
+            return Date.from(LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC).toInstant());
+        }
+        return Date.from(Instant.parse(date));
     }
 
     private Config loadConfig() {
@@ -190,77 +574,335 @@ public class Lambda implements RequestStreamHandler {
         return config;
     }
 
-    private String getAWSHealthEvents(List<Event> resultEvents) {
-        /*
-         * describeEvents call will return all the past events. Therefore, limit the result set by adding event
-         * start time filter.
-         */
-        if (config.getStatus().contains("closed")) {
-            DateTimeRange startTime = new DateTimeRange();
-            Date from = Date.from(ZonedDateTime.now().minusMonths(MAX_FETCH_MONTHS_PERIOD).toInstant());
-            Date to = Date.from(ZonedDateTime.now().toInstant());
-            startTime.setFrom(from);
-            startTime.setTo(to);
-            List<DateTimeRange> startTimes = new ArrayList<>();
-            startTimes.add(startTime);
+    /*
+     * Profiles sharing a tag and entity filter, and whether they include closed events, are fetched with one
+     * describeEvents call over the union of their filters; tags and entities can't be matched client side. Groups
+     * over the EventFilter limit of regions, services or event type codes are split into several calls.
+     */
+    private Collection<Config> getFetchGroups(List<Config> profiles) {
+        Map<String, List<Config>> groups = new TreeMap<>();
+        for (Config i : profiles) {
+            groups.computeIfAbsent(IndexedEvents.getFetchKey(i), k -> new ArrayList<>()).add(i);
+        }
+        List<Config> result = new ArrayList<>();
+        for (List<Config> i : groups.values()) {
+            List<Config> split = Collections.singletonList(Config.union(i));
+            split = splitFetchGroups(split, Config::getRegions, Config::setRegions);
+            split = splitFetchGroups(split, Config::getServices, Config::setServices);
+            split = splitFetchGroups(split, Config::getEvent_type_codes, Config::setEvent_type_codes);
+            result.addAll(split);
+        }
+        return result;
+    }
 
-            resultEvents.addAll(AWSHelper.AWSHealthHelper.describeEvents(config.getRegions(), config.getCategory(),
-                                config.getStatus(), config.getTags(), startTimes, null));
-        } else {
-            resultEvents.addAll(AWSHelper.AWSHealthHelper.describeEvents(config.getRegions(), config.getCategory(),
-                                config.getStatus(), config.getTags(), null, null));
+    private List<Config> splitFetchGroups(List<Config> fetchGroups, Function<Config, List<String>> getter,
+                                          BiConsumer<Config, List<String>> setter) {
+        List<Config> result = new ArrayList<>();
+        for (Config i : fetchGroups) {
+            List<String> values = getter.apply(i);
+            if (values == null || values.size() <= AWSHelper.AWSHealthHelper.MAX_FILTER_VALUES) {
+                result.add(i);
+                continue;
+            }
+            for (int j = 0; j < values.size(); j += AWSHelper.AWSHealthHelper.MAX_FILTER_VALUES) {
+                Config group = Config.union(Collections.singletonList(i));
+                setter.accept(group, new ArrayList<>(values.subList(j, Math.min(values.size(),
+                                                     j + AWSHelper.AWSHealthHelper.MAX_FILTER_VALUES))));
+                result.add(group);
+            }
         }
+        return result;
+    }
 
-        List<String> eventArns;
-        if (resultEvents.size() > 0) {
-            eventArns = resultEvents.stream().map(Event::getArn).collect(Collectors.toList());
-        } else {
-            eventArns = new ArrayList<>();
+    /*
+     * Every filter of the fetch group is applied server side, except for the time ranges of groups not including
+     * 'closed': those list every open and upcoming event, so an event missing from the list can be told closed.
+     * Their time ranges, and time ranges over the limit (from the union of several profiles), are left to the
+     * client side check.
+     */
+    private EventFilter getEventFilter(Config fetchGroup) {
+        EventFilter filter = new EventFilter();
+        filter.setRegions(fetchGroup.getRegions());
+        filter.setEventStatusCodes(fetchGroup.getStatus());
+        filter.setEventTypeCategories(fetchGroup.getCategory());
+        filter.setTags(fetchGroup.getTags());
+        filter.setServices(nullIfEmpty(fetchGroup.getServices()));
+        filter.setEventTypeCodes(nullIfEmpty(fetchGroup.getEvent_type_codes()));
+        filter.setAvailabilityZones(nullIfEmpty(fetchGroup.getAvailability_zones()));
+        filter.setEntityArns(nullIfEmpty(fetchGroup.getEntity_arns()));
+        filter.setEntityValues(nullIfEmpty(fetchGroup.getEntity_values()));
+        filter.setStartTimes(getStartTimes(fetchGroup));
+        if (fetchGroup.getStatus().contains("closed")) {
+            filter.setEndTimes(getTimeRanges(fetchGroup.getEnd_times()));
+            filter.setLastUpdatedTimes(getTimeRanges(fetchGroup.getLast_updated_times()));
         }
+        return filter;
+    }
 
-        return getDetaildEventDescriptionWithAffectedResources(eventArns, 1);
+    private static List<DateTimeRange> getTimeRanges(List<Config.TimeRange> ranges) {
+        if (ranges == null || ranges.isEmpty() || ranges.size() > AWSHelper.AWSHealthHelper.MAX_FILTER_VALUES) {
+            return null;
+        }
+        return ranges.stream().map(Config.TimeRange::toDateTimeRange).collect(Collectors.toList());
     }
 
-    private String getDetaildEventDescriptionWithAffectedResources(List<String> eventArns, Integer eventCounterOffset) {
-        if (eventArns.size() == 0) return "";
+    private static <T> List<T> nullIfEmpty(List<T> values) {
+        return values == null || values.isEmpty() ? null : values;
+    }
 
-        /*
-         * Divide the eventArns into chunks of 5 (due to maximum length factor) since DescribeEventDetails only takes
-         * in a maximum of 10 event ARN at a time with maximum length of 1600.
-         * https://docs.aws.amazon.com/health/latest/APIReference/API_DescribeEventDetails.html
-         */
-        int chunkSize = 5;
-        List<List<String>> eventArnsLists = new ArrayList<>();
-        for (int i=0; i < eventArns.size(); i += chunkSize) {
-            int end = Math.min(eventArns.size(), i + chunkSize);
-            eventArnsLists.add(eventArns.subList(i, end));
+    /*
+     * Events are indexed page by page; the details of the events matching detailFilter are fetched while the
+     * next page is still on its way, until only the time for notifying is left. Returns null when there's no
+     * time left to list all the events.
+     */
+    private IndexedEvents getAWSHealthEvents(Collection<Config> fetchGroups, Predicate<Event> detailFilter,
+                                             long detailReserveMillis) {
+        IndexedEvents indexedEvents = new IndexedEvents();
+        for (Config i : fetchGroups) {
+            Iterator<List<Event>> pages = AWSHelper.AWSHealthHelper.describeEventPages(getEventFilter(i));
+            while (pages.hasNext()) {
+                if (!deadline.hasTime(0L)) {
+                    LOGGER.warn("Out of time listing AWS Health events after " + indexedEvents.size() + " event(s)");
+                    return null;
+                }
+
+                // Events excluded by every profile of the group are dropped before any detail call
+                List<Event> page = pages.next().stream().filter(j -> !i.getExclusionMatcher().matches(j))
+                                        .collect(Collectors.toList());
+                indexedEvents.add(page, i);
+                resumeEventDetails(page);
+                try {
+                    fetchEventDetails(page.stream().filter(detailFilter).map(Event::getArn)
+                                          .collect(Collectors.toList()), detailReserveMillis);
+                } catch (AmazonServiceException e) {
+                    // Left to the lane fetch, which plans the ARNs not fetched yet again
+                    LOGGER.warn("Prefetching AWS Health event details failed: " + e.getMessage());
+                }
+            }
         }
+        return indexedEvents;
+    }
 
-        // Get eventDetails and affectedResources from the events returned
-        List<EventDetails> resultEventsDetail = new ArrayList<>();
-        List<AffectedEntity> resultEventsDetailDetail = new ArrayList<>();
-        for (List<String> i : eventArnsLists) {
-            resultEventsDetail.addAll(AWSHelper.AWSHealthHelper.describeEventDetails(i));
-            resultEventsDetailDetail.addAll(AWSHelper.AWSHealthHelper.describeAffectedEntities(i));
+    /*
+     * Invoke a worker per additional shard, fetch shard 0 here and merge in the results of the workers. Returns
+     * null when a shard did not finish in time; nothing is notified or persisted then and the next run retries.
+     */
+    private IndexedEvents getShardedAWSHealthEvents(Collection<Config> fetchGroups, int shards, Context context)
+            throws IOException {
+        String generation = context.getAwsRequestId();
+        for (int i = 1; i < shards; i++) {
+            Map<String, Object> payload = new HashMap<>();
+            payload.put(SHARD, i);
+            payload.put(SHARDS, shards);
+            payload.put(GENERATION, generation);
+            AWSHelper.LambdaHelper.invokeAsync(context.getFunctionName(), Jackson.toJsonString(payload));
         }
 
-        List<EventDetailWithResources> eventDetailWithResources = new ArrayList<>();
-        for (EventDetails i : resultEventsDetail) {
-            EventDetailWithResources row = new EventDetailWithResources(i);
+        IndexedEvents indexedEvents = getAWSHealthEvents(getShardFetchGroups(fetchGroups, 0, shards), i -> true,
+                                                         SHARD_WAIT_MARGIN_MILLIS);
+        if (indexedEvents == null) return null;
+
+        Set<Integer> pending = new TreeSet<>();
+        for (int i = 1; i < shards; i++) pending.add(i);
+        while (!pending.isEmpty() && context.getRemainingTimeInMillis() > SHARD_WAIT_MARGIN_MILLIS) {
+            for (Iterator<Integer> it = pending.iterator(); it.hasNext();) {
+                String shardResult = String.format(PERSIST_SHARD_RESULT, generation, it.next());
+                if (!AWSHelper.S3Helper.doesFileExist(BUCKET, shardResult, REGION)) continue;
+
+                AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH + shardResult, shardResult, REGION);
+                try (ObjectInputStream ois = new ObjectInputStream(
+                                             new FileInputStream(PERSIST_FILE_PATH + shardResult))) {
+                    ShardResult result = (ShardResult) ois.readObject();
+                    indexedEvents.addAll(result.getEvents());
+                    eventDetailCache.putAll(result.getEventDetails());
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+                AWSHelper.S3Helper.deleteFiles(BUCKET, REGION, Collections.singletonList(shardResult));
+                it.remove();
+            }
+            if (!pending.isEmpty()) {
+                try {
+                    Thread.sleep(SHARD_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            LOGGER.error("Shard(s) " + pending + " did not finish in time; skipping this run.");
+            // Results uploaded since the last poll; later ones are removed by the housekeeping
+            AWSHelper.S3Helper.deleteFiles(BUCKET, REGION, pending.stream()
+                    .map(i -> String.format(PERSIST_SHARD_RESULT, generation, i)).collect(Collectors.toList()));
+            return null;
+        }
+        return indexedEvents;
+    }
+
+    /*
+     * Worker side of a sharded run; fetch the events and event details of the shard and store them for the
+     * coordinator.
+     */
+    private void fetchShard(int shard, int shards, String generation) throws IOException {
+        // Details left unfetched when time runs short are fetched by the coordinator
+        IndexedEvents indexedEvents = getAWSHealthEvents(
+                getShardFetchGroups(getFetchGroups(config.getEffectiveProfiles()), shard, shards), i -> true, 0L);
+        if (indexedEvents == null) return;
+
+        String shardResult = String.format(PERSIST_SHARD_RESULT, generation, shard);
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(PERSIST_FILE_PATH + shardResult));
+        oos.writeObject(new ShardResult(indexedEvents, new HashMap<>(eventDetailCache)));
+        oos.close();
+        File f = new File(PERSIST_FILE_PATH + shardResult);
+        AWSHelper.S3Helper.uploadFile(BUCKET, f, shardResult, REGION);
+        LOGGER.info("Shard " + shard + "/" + shards + " fetched " + indexedEvents.size() + " event(s)");
+    }
+
+    /*
+     * Split the regions (or categories, with shard_by: category) of each fetch group round-robin across shards.
+     */
+    private List<Config> getShardFetchGroups(Collection<Config> fetchGroups, int shard, int shards) {
+        boolean byCategory = SHARD_BY_CATEGORY.equals(config.getShard_by());
+        List<Config> result = new ArrayList<>();
+        for (Config i : fetchGroups) {
+            Config group = Config.union(Collections.singletonList(i));
+            List<String> values = byCategory ? group.getCategory() : group.getRegions();
+            List<String> owned = new ArrayList<>();
+            for (int j = shard; j < values.size(); j += shards) {
+                owned.add(values.get(j));
+            }
+            if (owned.isEmpty()) continue;
+
+            if (byCategory) {
+                group.setCategory(owned);
+            } else {
+                group.setRegions(owned);
+            }
+            result.add(group);
+        }
+        return result;
+    }
+
+    /* Track the list of events that had notifications sent out; we'll need them in case describeEvents call
+     * have filter for excluding 'closed' events since the users will want 'event closed' notifications
+     * when they're closed. Compared with the events listed regardless of the profile's time ranges.
+     */
+    private List<Event> getRecentlyClosedEvents(List<Event> pastEvents, List<Event> currentEvents) {
+        List<Event> recentlyClosedEvents = new ArrayList<>();
+        Set<String> s2 = currentEvents.stream().map(Event::getArn).collect(Collectors.toSet());
+        for (Event i : pastEvents) {
+            // List of events that was closed since the last notification
+            if (!s2.contains(i.getArn())) recentlyClosedEvents.add(i);
+        }
+        return recentlyClosedEvents;
+    }
+
+    /*
+     * Events notified before that are still open but fell out of the profile's time ranges; they stay on the
+     * list, so they're still reported once they close.
+     */
+    private List<Event> getOutOfRangeEvents(Config profile, List<Event> pastEvents, List<Event> currentEvents) {
+        Set<String> s1 = pastEvents.stream().map(Event::getArn).collect(Collectors.toSet());
+        return currentEvents.stream().filter(i -> s1.contains(i.getArn()) && !profile.inTimeRanges(i))
+                            .collect(Collectors.toList());
+    }
+
+    /*
+     * Events on the list of the last notification; profiles including 'closed' events don't keep one.
+     */
+    private List<Event> loadPastEvents(Config profile) {
+        List<Event> pastEvents = new ArrayList<>();
+        if (profile.getStatus().contains("closed")) return pastEvents;
+        try {
+            List<Event> loaded = loadEvents(profile);
+            if (loaded != null) pastEvents.addAll(loaded);
+        } catch (IOException | ClassNotFoundException e) {
+            LOGGER.error(e.getMessage());
+        }
+        return pastEvents;
+    }
+
+    /*
+     * describeEvents call will return all the past events. Therefore, limit the result set by adding event
+     * start time filter; configured start time ranges are clamped to it. Only fetch groups of profiles that all
+     * include 'closed' are limited, the others need every open and upcoming event for telling the closed ones.
+     */
+    private List<DateTimeRange> getStartTimes(Config fetchGroup) {
+        if (!fetchGroup.getStatus().contains("closed")) return null;
+        List<DateTimeRange> configured = getTimeRanges(fetchGroup.getStart_times());
+
+        Date from = Date.from(ZonedDateTime.now().minusMonths(MAX_FETCH_MONTHS_PERIOD).toInstant());
+        Date to = Date.from(ZonedDateTime.now().toInstant());
+        if (configured == null) {
+            DateTimeRange startTime = new DateTimeRange();
+            startTime.setFrom(from);
+            startTime.setTo(to);
+            configured = new ArrayList<>();
+            configured.add(startTime);
+            return configured;
+        }
+
+        List<DateTimeRange> startTimes = new ArrayList<>();
+        for (DateTimeRange i : configured) {
+            DateTimeRange startTime = new DateTimeRange();
+            startTime.setFrom(i.getFrom() == null || i.getFrom().before(from) ? from : i.getFrom());
+            startTime.setTo(i.getTo() == null || i.getTo().after(to) ? to : i.getTo());
+            if (!startTime.getFrom().after(startTime.getTo())) startTimes.add(startTime);
+        }
+        // Nothing of the configured ranges falls in the fetch period; an empty range keeps the result empty
+        if (startTimes.isEmpty()) {
+            DateTimeRange startTime = new DateTimeRange();
+            startTime.setFrom(to);
+            startTime.setTo(to);
+            startTimes.add(startTime);
+        }
+        return startTimes;
+    }
 
-            // Find relevant resources for the event and add them to eventResources list\
-            List<AffectedEntity> affectedEntities = resultEventsDetailDetail.stream()
-                                                    .filter(affectedEntity -> affectedEntity.getEventArn()
-                                                    .compareTo(i.getEvent().getArn()) == 0 ? true : false)
-                                                    .collect(Collectors.toList());
-            row.getEventResources().addAll(affectedEntities);
+    /*
+     * Fingerprint the event counts per category and the first describeEvents page; two calls instead of the full
+     * pagination, detail fetch and render. Returns null when the probe fails so the full run goes ahead.
+     */
+    private ChangeProbe probeAWSHealthEvents(Collection<Config> fetchGroups) {
+        if (getFullReconcileMillis() <= 0) return null;
 
-            eventDetailWithResources.add(row);
+        try {
+            StringBuilder data = new StringBuilder();
+            for (Config i : fetchGroups) {
+                EventFilter filter = getEventFilter(i);
+                Map<String, Integer> aggregates = AWSHelper.AWSHealthHelper.describeEventAggregates(filter);
+                List<Event> latestEvents = AWSHelper.AWSHealthHelper.describeLatestEvents(
+                        filter, ChangeProbe.LATEST_EVENTS_PAGE_SIZE);
+                data.append(ChangeProbe.buildFingerprintData(aggregates, latestEvents));
+            }
+            return new ChangeProbe(getSHAHash(data.toString()), System.currentTimeMillis());
+        } catch (AmazonServiceException e) {
+            LOGGER.error(e.getMessage());
+            return null;
+        }
+    }
+
+    private long getFullReconcileMillis() {
+        Integer minutes = config.getFull_reconcile_minutes() != null ? config.getFull_reconcile_minutes()
+                                                                     : DEFAULT_FULL_RECONCILE_MINUTES;
+        return minutes * 60L * 1000L;
+    }
+
+    private String getDetaildEventDescriptionWithAffectedResources(List<String> eventArns, Integer eventCounterOffset) {
+        if (eventArns.size() == 0) return "";
+
+        List<EventDetailWithResources> eventDetailWithResources = new ArrayList<>();
+        for (String i : eventArns) {
+            if (eventDetailCache.containsKey(i)) {
+                eventDetailWithResources.add(eventDetailCache.get(i));
+            }
         }
 
         // Sort to print in the most recent event order
-        Collections.sort(eventDetailWithResources, (e1,e2) -> e2.eventDetail.getEvent().getStartTime()
-                         .compareTo(e1.eventDetail.getEvent().getStartTime()));
+        Collections.sort(eventDetailWithResources, (e1,e2) -> e2.getEventDetail().getEvent().getStartTime()
+                         .compareTo(e1.getEventDetail().getEvent().getStartTime()));
 
         int num = eventCounterOffset;
         StringBuilder output = new StringBuilder();
@@ -294,20 +936,28 @@ public class Lambda implements RequestStreamHandler {
 
             output.append("\tSummary:" + System.getProperty("line.separator") + System.getProperty("line.separator"));
             // Get event summary and tabify each line
-            output.append(i.eventDetail.getEventDescription().getLatestDescription()
+            output.append(i.getEventDetail().getEventDescription().getLatestDescription()
                           .replaceAll("(?m)^", "\t") + System.getProperty("line.separator"));
-            if (i.getEventResources().size() > 0) {
-                if (i.getEventResources().get(0).getEntityArn() != null && !i.getEventResources().get(0)
-                                                                             .getEntityArn().isEmpty()) {
-                    output.append("\t\tAffected resources:" + System.getProperty("line.separator")
-                                                            + System.getProperty("line.separator"));
-                }
+            AffectedEntitySummary summary = i.getEventResources();
+            if (summary.getTotal() > 0) {
+                output.append("\t\tAffected resources:" + System.getProperty("line.separator")
+                                                        + System.getProperty("line.separator"));
             }
-            for (AffectedEntity j : i.getEventResources()) {
-                // Check if this is an actual affected entity
-                if (j.getEntityArn() == null || j.getEntityArn().isEmpty()) {
-                    continue;
+            if (summary.isTruncated()) {
+                // Too many resources to list; print the counts and point to the full list in the bucket
+                output.append("\t\t" + "Total: " + summary.getTotal() + " (first " + summary.getSample().size()
+                              + " listed below)" + System.getProperty("line.separator"));
+                output.append("\t\t" + "By Status Code: " + summary.getCountsByStatus()
+                              + System.getProperty("line.separator"));
+                output.append("\t\t" + "By Resource Type: " + summary.getCountsByResourceType()
+                              + System.getProperty("line.separator"));
+                if (summary.getSpillKey() != null) {
+                    output.append("\t\t" + "Full List: s3://" + BUCKET + "/" + summary.getSpillKey()
+                                  + System.getProperty("line.separator"));
                 }
+                output.append(System.getProperty("line.separator"));
+            }
+            for (AffectedEntity j : summary.getSample()) {
                 output.append("\t\t" + "ARN: " + j.getEntityArn() + System.getProperty("line.separator"));
                 if (j.getEntityUrl() != null && !j.getEntityUrl().isEmpty()) {
                     output.append("\t\t" + "URL: " + j.getEntityUrl() + System.getProperty("line.separator"));
@@ -346,40 +996,154 @@ public class Lambda implements RequestStreamHandler {
         return output.toString();
     }
 
+    /*
+     * Fetch the details of the events not fetched yet, batch by batch, as long as the slowest batch so far still
+     * fits in the remaining time besides reserveMillis. Returns false once a fetch stopped short; no more details
+     * are fetched in this run then, so the run has to be resumed from a checkpoint.
+     */
+    private boolean fetchEventDetails(List<String> eventArns, long reserveMillis) {
+        if (!detailsComplete) return false;
+
+        List<String> missing = eventArns.stream().filter(i -> !eventDetailCache.containsKey(i))
+                                        .collect(Collectors.toList());
+        long slowestBatchMillis = 0L;
+        for (List<String> i : arnBatchPlanner.plan(missing)) {
+            if (!deadline.hasTime(reserveMillis + slowestBatchMillis)) {
+                LOGGER.warn("Out of time fetching AWS Health event details after " + eventDetailCache.size()
+                            + " event(s)");
+                detailsComplete = false;
+                return false;
+            }
+            long started = System.currentTimeMillis();
+
+            try {
+                List<EventDetails> resultEventsDetail = ArnBatchPlanner.execute(i,
+                                                        AWSHelper.AWSHealthHelper::describeEventDetails);
+
+                for (EventDetails j : resultEventsDetail) {
+                    AffectedEntitySummary summary = new AffectedEntitySummary(j.getEvent().getArn(),
+                            j.getEvent().getService(), entitySampleSize,
+                            PERSIST_FILE_PATH + String.format(PERSIST_AFFECTED_ENTITIES_NAME,
+                                                              getSHAHash(j.getEvent().getArn())));
+                    eventDetailCache.put(j.getEvent().getArn(), new EventDetailWithResources(j, summary));
+                }
+
+                // Stream the relevant resources of the events into their summaries page by page
+                ArnBatchPlanner.execute(i, arns -> {
+                    AWSHelper.AWSHealthHelper.describeAffectedEntities(arns, (AffectedEntity j) -> {
+                        EventDetailWithResources row = eventDetailCache.get(j.getEventArn());
+                        if (row != null) {
+                            row.getEventResources().add(j);
+                        }
+                    });
+                    return Collections.emptyList();
+                });
+
+                // Store the full resource list of the summarized events as a compressed object
+                for (String j : i) {
+                    EventDetailWithResources row = eventDetailCache.get(j);
+                    if (row == null) continue;
+                    File f = row.getEventResources().finish();
+                    if (f != null) {
+                        String key = String.format(PERSIST_AFFECTED_ENTITIES_NAME, getSHAHash(j));
+                        AWSHelper.S3Helper.uploadFile(BUCKET, f, key, REGION);
+                        row.getEventResources().setSpillKey(key);
+                        f.delete();
+                    }
+                }
+            } catch (AmazonServiceException e) {
+                // Drop the partly fetched events of the batch, so the next caller fetches them again
+                for (String j : i) {
+                    EventDetailWithResources row = eventDetailCache.remove(j);
+                    if (row == null) continue;
+                    File f = row.getEventResources().finish();
+                    if (f != null) f.delete();
+                }
+                throw e;
+            }
+            arnBatchPlanner.markFetched(i);
+            slowestBatchMillis = Math.max(slowestBatchMillis, System.currentTimeMillis() - started);
+        }
+        return true;
+    }
+
+    /*
+     * Take over the checkpointed details of the listed events that didn't change since the checkpoint.
+     */
+    private void resumeEventDetails(List<Event> events) {
+        if (detailCheckpoint == null) return;
+        for (Event i : events) {
+            EventDetailWithResources detail = detailCheckpoint.take(i);
+            if (detail != null) eventDetailCache.putIfAbsent(i.getArn(), detail);
+        }
+    }
+
+    private void persistDetailCheckpoint() throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(
+                new FileOutputStream(PERSIST_FILE_PATH + PERSIST_DETAIL_CHECKPOINT));
+        oos.writeObject(new DetailCheckpoint(eventDetailCache));
+        oos.close();
+        File f = new File(PERSIST_FILE_PATH + PERSIST_DETAIL_CHECKPOINT);
+        AWSHelper.S3Helper.uploadFile(BUCKET, f, PERSIST_DETAIL_CHECKPOINT, REGION);
+        LOGGER.info("Checkpointed " + eventDetailCache.size() + " event detail(s) for the next run");
+    }
+
+    private DetailCheckpoint loadDetailCheckpoint() throws IOException {
+        if (!AWSHelper.S3Helper.doesFileExist(BUCKET, PERSIST_DETAIL_CHECKPOINT, REGION)) return null;
+
+        AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH + PERSIST_DETAIL_CHECKPOINT,
+                                        PERSIST_DETAIL_CHECKPOINT, REGION);
+        try (ObjectInputStream ois = new ObjectInputStream(
+                                     new FileInputStream(PERSIST_FILE_PATH + PERSIST_DETAIL_CHECKPOINT))) {
+            DetailCheckpoint checkpoint = (DetailCheckpoint) ois.readObject();
+            if (checkpoint.isExpired(DETAIL_CHECKPOINT_MAX_AGE_MILLIS)) {
+                AWSHelper.S3Helper.deleteFiles(BUCKET, REGION, Collections.singletonList(PERSIST_DETAIL_CHECKPOINT));
+                return null;
+            }
+            LOGGER.info("Resuming from " + checkpoint.size() + " checkpointed event detail(s)");
+            return checkpoint;
+        } catch (ClassNotFoundException | InvalidClassException e) {
+            LOGGER.error(e.getMessage());
+            return null;
+        }
+    }
+
     /*
      * Persist the getAWSHealthEvents() result
      */
-    private void persistEventResult(String events) {
+    private void persistEventResult(Config profile, String events) {
         DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
         Date date = new Date();
-        String fileName = String.format(PERSIST_FILE_NAME, dateFormat.format(date));
+        String fileName = String.format(getStateFileName(PERSIST_FILE_NAME, profile), dateFormat.format(date));
 
         writeFileContents(PERSIST_FILE_PATH + fileName, events);
         File f = new File(PERSIST_FILE_PATH + fileName);
         AWSHelper.S3Helper.uploadFile(BUCKET, f, fileName, REGION);
     }
 
-    private void persistEvents(List<Event> resultEvents) throws IOException {
+    private void persistEvents(Config profile, List<Event> resultEvents) throws IOException {
+        String eventsNotificationSent = getStateFileName(PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT, profile);
         ObjectOutputStream oos = new ObjectOutputStream(
-                new FileOutputStream(PERSIST_FILE_PATH+PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT));
-        oos.writeObject(resultEvents);
+                new FileOutputStream(PERSIST_FILE_PATH+eventsNotificationSent));
+        oos.writeObject(new ArrayList<>(resultEvents));
         oos.close();
-        File f = new File(PERSIST_FILE_PATH+PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT);
-        AWSHelper.S3Helper.uploadFile(BUCKET, f, PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT, REGION);
+        File f = new File(PERSIST_FILE_PATH+eventsNotificationSent);
+        AWSHelper.S3Helper.uploadFile(BUCKET, f, eventsNotificationSent, REGION);
     }
 
-    private List<Event> loadEvents() throws IOException, ClassNotFoundException {
+    private List<Event> loadEvents(Config profile) throws IOException, ClassNotFoundException {
         List<Event> list = null;
+        String eventsNotificationSent = getStateFileName(PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT, profile);
 
-        if (AWSHelper.S3Helper.doesFileExist(BUCKET, PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT, REGION)) {
-            AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH+PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT,
-                                            PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT, REGION);
+        if (AWSHelper.S3Helper.doesFileExist(BUCKET, eventsNotificationSent, REGION)) {
+            AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH+eventsNotificationSent,
+                                            eventsNotificationSent, REGION);
         }
 
-        File f = new File(PERSIST_FILE_PATH+PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT);
+        File f = new File(PERSIST_FILE_PATH+eventsNotificationSent);
         if (f.exists()) {
             ObjectInputStream ois = new ObjectInputStream(
-                                    new FileInputStream(PERSIST_FILE_PATH+PERSIST_EVENTS_WITH_NOTIFICATIONS_SENT));
+                                    new FileInputStream(PERSIST_FILE_PATH+eventsNotificationSent));
             list = (List<Event>) ois.readObject(); // cast is needed.
             ois.close();
         }
@@ -388,72 +1152,161 @@ public class Lambda implements RequestStreamHandler {
     }
 
     /*
-     * Truncate getAWSHealthEvents() results older than the threshold from the bucket
+     * State of the default profile keeps the original file names; other profiles get their name appended.
      */
-    private void truncateEventResultsFromS3() {
-        List<S3ObjectSummary> bucketObjects = AWSHelper.S3Helper.listBucketContents(BUCKET, REGION);
-        bucketObjects.sort(Comparator.comparing(S3ObjectSummary::getLastModified));
-        if (bucketObjects.size() > AWSHelper.S3Helper.MAX_KEYS) {
-            List<String> keys = new ArrayList<>();
-            for (int i = 0; i < (bucketObjects.size() - AWSHelper.S3Helper.MAX_KEYS); i++) {
-                keys.add(bucketObjects.get(i).getKey());
-            }
-            List<String> result = AWSHelper.S3Helper.deleteFiles(BUCKET, REGION, keys);
-            if (result.size() != keys.size()) {
-                Set<String> setKeys = new HashSet<>(keys);
-                Set<String> setResult = new HashSet<>(result);
-                setKeys.removeAll(setResult);
-                LOGGER.error("S3 delete failed for the following files: ");
-                for (String i : setKeys) {
-                    LOGGER.error(i);
-                }
-            }
-        }
+    private static String getStateFileName(String fileName, Config profile) {
+        if (Config.DEFAULT_PROFILE_NAME.equals(profile.getName())) return fileName;
+        int ext = fileName.lastIndexOf('.');
+        return fileName.substring(0, ext) + "_" + profile.getName() + fileName.substring(ext);
     }
 
-    private RawMessage prepareRawMessage(String emailContent) {
-        RawMessage rawMessage = null;
-        try {
-            Session session = Session.getDefaultInstance(new Properties());
-            MimeMessage message = new MimeMessage(session);
-            message.setSubject("[aws-lambda-java-AWSHealth-check] Found new health events", "UTF-8");
-            message.setFrom(new InternetAddress(config.getSes_from()));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(config.getSes_send()));
+    private void updateRollup(Map<HealthHistoryIndex.Row, HealthHistoryIndex.Row> changes) throws IOException {
+        HealthRollup rollup = loadRollup();
+        rollup.update(changes);
 
-            // Create a multipart/alternative child container.
-            MimeMultipart msg_body = new MimeMultipart("alternative");
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(PERSIST_FILE_PATH + PERSIST_ROLLUP));
+        oos.writeObject(rollup);
+        oos.close();
+        File f = new File(PERSIST_FILE_PATH + PERSIST_ROLLUP);
+        AWSHelper.S3Helper.uploadFile(BUCKET, f, PERSIST_ROLLUP, REGION);
+    }
 
-            // Create a wrapper for the HTML and text parts.
-            MimeBodyPart wrap = new MimeBodyPart();
+    private HealthRollup loadRollup() throws IOException {
+        HealthRollup rollup = new HealthRollup();
+        if (!AWSHelper.S3Helper.doesFileExist(BUCKET, PERSIST_ROLLUP, REGION)) return rollup;
 
-            // Define the text part.
-            MimeBodyPart textPart = new MimeBodyPart();
-            textPart.setContent(emailContent, "text/plain; charset=UTF-8");
+        AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH + PERSIST_ROLLUP, PERSIST_ROLLUP, REGION);
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(PERSIST_FILE_PATH + PERSIST_ROLLUP))) {
+            rollup.merge((HealthRollup) ois.readObject());
+        } catch (ClassNotFoundException | InvalidClassException e) {
+            LOGGER.error(e.getMessage());
+        }
+        return rollup;
+    }
 
-            // Add the text and HTML parts to the child container.
-            msg_body.addBodyPart(textPart);
+    /*
+     * Profiles are evaluated in parallel, so writes of the shared queue are serialized
+     */
+    private synchronized void persistRetryQueue() throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(
+                new FileOutputStream(PERSIST_FILE_PATH + PERSIST_RETRY_QUEUE));
+        oos.writeObject(retryQueue);
+        oos.close();
+        File f = new File(PERSIST_FILE_PATH + PERSIST_RETRY_QUEUE);
+        AWSHelper.S3Helper.uploadFile(BUCKET, f, PERSIST_RETRY_QUEUE, REGION);
+    }
 
-            // Add the child container to the wrapper object.
-            wrap.setContent(msg_body);
+    private RetryQueue loadRetryQueue() throws IOException {
+        if (!AWSHelper.S3Helper.doesFileExist(BUCKET, PERSIST_RETRY_QUEUE, REGION)) return new RetryQueue();
 
-            // Create a multipart/mixed parent container.
-            MimeMultipart msg = new MimeMultipart("mixed");
+        AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH + PERSIST_RETRY_QUEUE, PERSIST_RETRY_QUEUE, REGION);
+        try (ObjectInputStream ois = new ObjectInputStream(
+                                     new FileInputStream(PERSIST_FILE_PATH + PERSIST_RETRY_QUEUE))) {
+            return (RetryQueue) ois.readObject();
+        } catch (ClassNotFoundException | InvalidClassException e) {
+            LOGGER.error("Unable to read the retry queue, its queued notifications are dropped: " + e.getMessage());
+            return new RetryQueue();
+        }
+    }
 
-            // Add the parent container to the message.
-            message.setContent(msg);
+    /*
+     * Events of both lists by ARN, the later list taking precedence.
+     */
+    private static List<Event> mergeEvents(List<Event> older, List<Event> newer) {
+        Map<String, Event> merged = new LinkedHashMap<>();
+        for (Event i : older) merged.put(i.getArn(), i);
+        for (Event i : newer) merged.put(i.getArn(), i);
+        return new ArrayList<>(merged.values());
+    }
 
-            // Add the multipart/alternative part to the message.
-            msg.addBodyPart(wrap);
+    private void persistPendingHistory(List<Event> events) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(
+                new FileOutputStream(PERSIST_FILE_PATH + PERSIST_PENDING_HISTORY));
+        oos.writeObject(new ArrayList<>(events));
+        oos.close();
+        File f = new File(PERSIST_FILE_PATH + PERSIST_PENDING_HISTORY);
+        AWSHelper.S3Helper.uploadFile(BUCKET, f, PERSIST_PENDING_HISTORY, REGION);
+        LOGGER.info("Kept " + events.size() + " event(s) for the next history index update");
+    }
 
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            message.writeTo(outputStream);
-            rawMessage = new RawMessage(ByteBuffer.wrap(outputStream.toByteArray()));
+    private List<Event> loadPendingHistory() throws IOException {
+        if (!AWSHelper.S3Helper.doesFileExist(BUCKET, PERSIST_PENDING_HISTORY, REGION)) return new ArrayList<>();
 
-        } catch (IOException | MessagingException e) {
+        AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH + PERSIST_PENDING_HISTORY,
+                                        PERSIST_PENDING_HISTORY, REGION);
+        try (ObjectInputStream ois = new ObjectInputStream(
+                                     new FileInputStream(PERSIST_FILE_PATH + PERSIST_PENDING_HISTORY))) {
+            return (List<Event>) ois.readObject();
+        } catch (ClassNotFoundException | InvalidClassException e) {
             LOGGER.error(e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private void persistProbe(ChangeProbe probe) {
+        writeFileContents(PERSIST_FILE_PATH + PERSIST_PROBE_RESULT, probe.toString());
+        File f = new File(PERSIST_FILE_PATH + PERSIST_PROBE_RESULT);
+        AWSHelper.S3Helper.uploadFile(BUCKET, f, PERSIST_PROBE_RESULT, REGION);
+    }
+
+    private ChangeProbe loadProbe() {
+        if (!AWSHelper.S3Helper.doesFileExist(BUCKET, PERSIST_PROBE_RESULT, REGION)) return null;
+
+        AWSHelper.S3Helper.downloadFile(BUCKET, PERSIST_FILE_PATH + PERSIST_PROBE_RESULT,
+                                        PERSIST_PROBE_RESULT, REGION);
+        return ChangeProbe.parse(readFileContents(PERSIST_FILE_PATH + PERSIST_PROBE_RESULT));
+    }
+
+    /*
+     * Truncate getAWSHealthEvents() results older than the threshold from the bucket. Only the result history files
+     * and leftovers are aged out; the state files are rewritten only when their content changes, so their age says
+     * nothing about whether they are still in use.
+     */
+    private void truncateEventResultsFromS3(List<Config> profiles) {
+        List<S3ObjectSummary> bucketObjects = AWSHelper.S3Helper.listBucketContents(BUCKET, REGION);
+        List<String> keys = new ArrayList<>();
+
+        // Shard results nobody is waiting for anymore
+        String shardResultPrefix = PERSIST_SHARD_RESULT.substring(0, PERSIST_SHARD_RESULT.indexOf('%'));
+        long staleBefore = System.currentTimeMillis() - SHARD_RESULT_MAX_AGE_MILLIS;
+        for (S3ObjectSummary i : bucketObjects) {
+            if (i.getKey().startsWith(shardResultPrefix) && i.getLastModified().getTime() < staleBefore) {
+                keys.add(i.getKey());
+            }
+        }
+
+        // Affected entity lists are rewritten whenever their event is fetched; older ones belong to past events
+        String affectedEntitiesPrefix = PERSIST_AFFECTED_ENTITIES_NAME.substring(
+                                        0, PERSIST_AFFECTED_ENTITIES_NAME.indexOf('%'));
+        long expiredBefore = System.currentTimeMillis() - AFFECTED_ENTITIES_MAX_AGE_MILLIS;
+        for (S3ObjectSummary i : bucketObjects) {
+            if (i.getKey().startsWith(affectedEntitiesPrefix) && i.getLastModified().getTime() < expiredBefore) {
+                keys.add(i.getKey());
+            }
         }
 
-        return rawMessage;
+        // Every profile writes a result file per run, so the number kept scales with the profiles
+        String resultPrefix = PERSIST_FILE_NAME.substring(0, PERSIST_FILE_NAME.indexOf('%'));
+        List<S3ObjectSummary> results = bucketObjects.stream().filter(i -> i.getKey().startsWith(resultPrefix))
+                                                     .sorted(Comparator.comparing(S3ObjectSummary::getLastModified))
+                                                     .collect(Collectors.toList());
+        int maxResults = AWSHelper.S3Helper.MAX_KEYS * Math.max(1, profiles.size());
+        for (int i = 0; i < results.size() - maxResults; i++) {
+            keys.add(results.get(i).getKey());
+        }
+
+        if (!keys.isEmpty()) {
+            List<String> result = AWSHelper.S3Helper.deleteFiles(BUCKET, REGION, keys);
+            if (result.size() != keys.size()) {
+                Set<String> setKeys = new HashSet<>(keys);
+                Set<String> setResult = new HashSet<>(result);
+                setKeys.removeAll(setResult);
+                LOGGER.error("S3 delete failed for the following files: ");
+                for (String i : setKeys) {
+                    LOGGER.error(i);
+                }
+            }
+        }
     }
 
     private String getSHAHash(String data) {
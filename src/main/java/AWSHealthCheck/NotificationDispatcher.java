@@ -0,0 +1,138 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Delivers notifications to the sinks of a profile
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Sends to every sink in parallel, each bounded by the timeout, and reports the sinks that failed so the caller
+ * can queue them for retry before committing the notification as sent.
+ */
+public class NotificationDispatcher {
+    private static final Logger LOGGER = LogManager.getLogger(NotificationDispatcher.class);
+
+    private final List<NotificationSink> sinks;
+    private final long timeoutMillis;
+
+    public interface StateWriter {
+        void write() throws IOException;
+    }
+
+    public NotificationDispatcher(List<NotificationSink> sinks, long timeoutMillis) {
+        this.sinks = sinks;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /*
+     * Returns the names of the sinks the notification could not be delivered to.
+     */
+    public List<String> dispatch(Notification notification) {
+        return dispatch(notification, sinks, new HashMap<>());
+    }
+
+    /*
+     * Dispatch the notification and queue the sinks that failed. The commit (persisting the dedup hash of the
+     * notification) only runs once every sink has the notification delivered or durably queued; when persisting
+     * the queue fails, nothing is committed and the next run notifies again. The parts a sink did deliver are
+     * queued with it, so its retry doesn't send them twice.
+     */
+    public void deliver(Notification notification, RetryQueue retryQueue, StateWriter persistQueue,
+                        StateWriter commit) throws IOException {
+        Map<String, Set<Integer>> deliveredParts = new HashMap<>();
+        List<String> failedSinks = dispatch(notification, sinks, deliveredParts);
+        if (!failedSinks.isEmpty()) {
+            long now = System.currentTimeMillis();
+            for (String i : failedSinks) {
+                retryQueue.add(i, notification, deliveredParts.get(i), now);
+            }
+            persistQueue.write();
+        }
+        commit.write();
+    }
+
+    /*
+     * Deliver to a single sink by name; false when the sink is unknown or delivery failed.
+     */
+    public boolean retry(String sink, Notification notification) {
+        return retry(sink, notification, new ConcurrentSkipListSet<>());
+    }
+
+    /*
+     * Deliver to a single sink by name, skipping the parts already delivered and adding the ones this attempt
+     * delivers to deliveredParts.
+     */
+    public boolean retry(String sink, Notification notification, Set<Integer> deliveredParts) {
+        for (NotificationSink i : sinks) {
+            if (i.getName().equals(sink)) {
+                Map<String, Set<Integer>> parts = new HashMap<>();
+                parts.put(sink, deliveredParts);
+                return dispatch(notification, Collections.singletonList(i), parts).isEmpty();
+            }
+        }
+        LOGGER.warn("Sink " + sink + " is no longer configured for " + notification.getProfile());
+        return false;
+    }
+
+    /*
+     * Each sink adds the parts it delivers to its set in deliveredParts, created when missing.
+     */
+    private List<String> dispatch(Notification notification, List<NotificationSink> targets,
+                                  Map<String, Set<Integer>> deliveredParts) {
+        List<String> failed = new ArrayList<>();
+        if (targets.isEmpty()) return failed;
+
+        ExecutorService executor = Executors.newFixedThreadPool(targets.size());
+        Map<NotificationSink, Future<?>> futures = new LinkedHashMap<>();
+        for (NotificationSink i : targets) {
+            // Concurrent, as a sink that timed out may still be delivering parts
+            Set<Integer> parts = deliveredParts.computeIfAbsent(i.getName(), k -> new ConcurrentSkipListSet<>());
+            futures.put(i, executor.submit(() -> {
+                i.send(notification, parts);
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Map.Entry<NotificationSink, Future<?>> i : futures.entrySet()) {
+            try {
+                i.getValue().get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                LOGGER.info("Delivered notification for " + notification.getProfile() + " to " + i.getKey().getName());
+            } catch (TimeoutException e) {
+                i.getValue().cancel(true);
+                LOGGER.error("Timed out delivering to " + i.getKey().getName() + " for " + notification.getProfile());
+                failed.add(i.getKey().getName());
+            } catch (InterruptedException | ExecutionException e) {
+                LOGGER.error("Failed delivering to " + i.getKey().getName() + " for " + notification.getProfile()
+                             + ": " + e.getMessage());
+                failed.add(i.getKey().getName());
+            }
+        }
+        executor.shutdownNow();
+        return failed;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Paginated AWS API results fetched one page ahead of the caller
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/*
+ * Lazy iterator over the pages of a paginated call. Each page is returned as soon as it arrives, and the request
+ * for the following page is already in flight while the caller processes it, so downstream work overlaps the
+ * page round trips and only two pages are held at a time. Errors of a page request are rethrown from next()
+ * unwrapped, as if the call had been made inline.
+ */
+public class PrefetchingPageIterator<R, T> implements Iterator<List<T>> {
+    // Daemon threads, so an abandoned prefetch never keeps the function from completing
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "page-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Function<String, R> fetch;
+    private final Function<R, List<T>> items;
+    private final Function<R, String> nextToken;
+    private Future<R> pending;
+
+    /*
+     * fetch requests the page for a next token (null for the first page), items and nextToken read a response.
+     */
+    public PrefetchingPageIterator(Function<String, R> fetch, Function<R, List<T>> items,
+                                   Function<R, String> nextToken) {
+        this.fetch = fetch;
+        this.items = items;
+        this.nextToken = nextToken;
+        this.pending = prefetch(null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending != null;
+    }
+
+    @Override
+    public List<T> next() {
+        if (pending == null) throw new NoSuchElementException();
+
+        R response;
+        try {
+            response = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            pending = null;
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+
+        String token = nextToken.apply(response);
+        pending = token != null ? prefetch(token) : null;
+        return items.apply(response);
+    }
+
+    private Future<R> prefetch(String token) {
+        return EXECUTOR.submit(() -> fetch.apply(token));
+    }
+}
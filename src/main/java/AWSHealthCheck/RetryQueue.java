@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Notification retry queue
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/*
+ * Deliveries that failed, kept per profile and sink. Each failed attempt doubles the wait before the next one, from
+ * BASE_BACKOFF_MILLIS up to MAX_BACKOFF_MILLIS, and an entry is given up after MAX_ATTEMPTS. The queue itself is
+ * plain state; the caller persists it alongside the other state objects so it survives across runs.
+ */
+public class RetryQueue implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAX_ATTEMPTS = 10;
+    public static final long BASE_BACKOFF_MILLIS = 60 * 1000L;
+    public static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000L;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String sink;
+        private final Notification notification;
+        private int attempts;
+        private long nextAttemptMillis;
+        // Parts of a multi-part notification already delivered; null in entries queued before it was added
+        private Set<Integer> deliveredParts;
+
+        Entry(String sink, Notification notification, Set<Integer> deliveredParts, long now) {
+            this.sink = sink;
+            this.notification = notification;
+            this.deliveredParts = new ConcurrentSkipListSet<>(deliveredParts);
+            this.attempts = 1;
+            this.nextAttemptMillis = now + getBackoffMillis(attempts);
+        }
+
+        public String getSink() {
+            return sink;
+        }
+
+        public Notification getNotification() {
+            return notification;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public long getNextAttemptMillis() {
+            return nextAttemptMillis;
+        }
+
+        /*
+         * The live set of delivered parts; a retry adds the parts it delivers, so they are kept if it fails again.
+         */
+        public synchronized Set<Integer> getDeliveredParts() {
+            if (deliveredParts == null) deliveredParts = new ConcurrentSkipListSet<>();
+            return deliveredParts;
+        }
+    }
+
+    public void add(String sink, Notification notification) {
+        add(sink, notification, Collections.emptySet(), System.currentTimeMillis());
+    }
+
+    public void add(String sink, Notification notification, long now) {
+        add(sink, notification, Collections.emptySet(), now);
+    }
+
+    public synchronized void add(String sink, Notification notification, Set<Integer> deliveredParts, long now) {
+        // A newer notification of the profile and lane supersedes the queued one for the same sink
+        entries.removeIf(i -> i.sink.equals(sink) && i.notification.getProfile().equals(notification.getProfile())
+                              && Objects.equals(i.notification.getLane(), notification.getLane()));
+        entries.add(new Entry(sink, notification, deliveredParts, now));
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    /*
+     * Entries whose backoff has passed.
+     */
+    public synchronized List<Entry> getDueEntries(long now) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry i : entries) {
+            if (i.nextAttemptMillis <= now) result.add(i);
+        }
+        return result;
+    }
+
+    public synchronized void remove(Entry entry) {
+        entries.remove(entry);
+    }
+
+    public boolean retryFailed(Entry entry) {
+        return retryFailed(entry, System.currentTimeMillis());
+    }
+
+    /*
+     * Count a failed retry and back off; returns false when the entry was dropped after MAX_ATTEMPTS.
+     */
+    public synchronized boolean retryFailed(Entry entry, long now) {
+        if (++entry.attempts < MAX_ATTEMPTS) {
+            entry.nextAttemptMillis = now + getBackoffMillis(entry.attempts);
+            return true;
+        }
+        entries.remove(entry);
+        return false;
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    static long getBackoffMillis(int attempts) {
+        return Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempts - 1, 20));
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Size-aware SES raw message builder
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.simpleemail.model.RawMessage;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Reports up to the inline limit are sent inline as before. Larger reports are sent with an inline summary (the
+ * first events) and the full report as a gzip attachment, and split at event boundaries into several messages when
+ * the attachment would not fit in the SES raw message limit. The part boundaries are planned by counting the gzip
+ * output only; each part is then compressed, built into a message and handed out before the next one, so besides
+ * the content at most one compressed part and one encoded message are held in memory.
+ */
+public class SesMessageBuilder {
+    // SES accepts raw messages of up to 10 MB, attachments base64 encoded included
+    public static final int MAX_RAW_MESSAGE_BYTES = 10 * 1024 * 1024;
+    public static final int DEFAULT_INLINE_LIMIT_BYTES = 256 * 1024;
+    private static final int SUMMARY_CHARS = 16 * 1024;
+    // Room for the headers and the inline summary of a message with an attachment
+    private static final int MESSAGE_OVERHEAD_BYTES = 4 * SUMMARY_CHARS + 16 * 1024;
+    private static final String EVENT_BOUNDARY = "\nEvent ";
+
+    private final String sender;
+    private final String recipient;
+    private final int inlineLimitBytes;
+    private final int maxAttachmentBytes;
+
+    public SesMessageBuilder(String sender, String recipient, int inlineLimitBytes) {
+        this(sender, recipient, inlineLimitBytes, MAX_RAW_MESSAGE_BYTES);
+    }
+
+    public SesMessageBuilder(String sender, String recipient, int inlineLimitBytes, int maxRawMessageBytes) {
+        this.sender = sender;
+        this.recipient = recipient;
+        this.inlineLimitBytes = inlineLimitBytes;
+        // base64 takes 4 bytes (plus line breaks) for every 3
+        this.maxAttachmentBytes = (maxRawMessageBytes - MESSAGE_OVERHEAD_BYTES) / 100 * 73;
+    }
+
+    // Exposes the buffer, so reading it back or wrapping it doesn't copy it
+    private static class Buffer extends ByteArrayOutputStream {
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /*
+     * Build the messages for the notification and hand each one to the consumer, with its part index, as soon as
+     * it's built. Parts in skipParts (already delivered) are not built.
+     */
+    public void build(Notification notification, Set<Integer> skipParts, BiConsumer<Integer, RawMessage> consumer)
+            throws IOException, MessagingException {
+        String content = notification.getContent();
+        if (getUtf8Length(content) <= inlineLimitBytes) {
+            if (!skipParts.contains(0)) {
+                consumer.accept(0, buildMessage(notification.getSubject(), content, null, null));
+            }
+            return;
+        }
+
+        // Part i covers the content from bounds[i] to bounds[i + 1]
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        addParts(content, 0, content.length(), bounds);
+        int partCount = bounds.size() - 1;
+
+        String summary = content.substring(0, findEventBoundary(content, Math.min(SUMMARY_CHARS, content.length()),
+                                                                0, content.length(), false));
+        for (int i = 0; i < partCount; i++) {
+            if (skipParts.contains(i)) continue;
+            String subject = notification.getSubject();
+            String attachmentName = "health-report.txt.gz";
+            String text;
+            if (partCount == 1) {
+                text = summary + "\n...\nThe full report is attached as " + attachmentName + ".\n";
+            } else {
+                subject += " (" + (i + 1) + "/" + partCount + ")";
+                attachmentName = "health-report-" + (i + 1) + "-of-" + partCount + ".txt.gz";
+                text = (i == 0 ? summary + "\n...\n" : "")
+                       + "The full report is split across " + partCount + " messages; this message has part "
+                       + (i + 1) + " attached as " + attachmentName + ".\n";
+            }
+            Buffer gzip = new Buffer();
+            compress(content, bounds.get(i), bounds.get(i + 1), gzip);
+            consumer.accept(i, buildMessage(subject, text, attachmentName, gzip));
+        }
+    }
+
+    /*
+     * Add the end of each part of the range, halving it at an event boundary until each part's gzip fits in a
+     * message. Only the gzip size is counted here; nothing is kept.
+     */
+    private void addParts(String content, int start, int end, List<Integer> bounds) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        compress(content, start, end, counter);
+        int middle = findEventBoundary(content, start + (end - start) / 2, start, end, true);
+        if (counter.getByteCount() <= maxAttachmentBytes || middle <= start || middle >= end) {
+            bounds.add(end);
+            return;
+        }
+        addParts(content, start, middle, bounds);
+        addParts(content, middle, end, bounds);
+    }
+
+    private static void compress(String content, int start, int end, OutputStream out) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8)) {
+            writer.write(content, start, end - start);
+        }
+    }
+
+    /*
+     * Start of the event nearest to the position (after it when forward), or the position itself when the range
+     * has no event boundary that way.
+     */
+    private static int findEventBoundary(String content, int position, int start, int end, boolean forward) {
+        int boundary = forward ? content.indexOf(EVENT_BOUNDARY, position)
+                               : content.lastIndexOf(EVENT_BOUNDARY, position);
+        if (boundary <= start || boundary >= end) return position;
+        return boundary + 1;
+    }
+
+    private static long getUtf8Length(String content) {
+        long length = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private RawMessage buildMessage(String subject, String text, String attachmentName, Buffer attachment)
+            throws IOException, MessagingException {
+        Session session = Session.getDefaultInstance(new Properties());
+        MimeMessage message = new MimeMessage(session);
+        message.setSubject(subject, "UTF-8");
+        message.setFrom(new InternetAddress(sender));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(recipient));
+
+        // Create a multipart/alternative child container.
+        MimeMultipart msg_body = new MimeMultipart("alternative");
+
+        // Create a wrapper for the HTML and text parts.
+        MimeBodyPart wrap = new MimeBodyPart();
+
+        // Define the text part.
+        MimeBodyPart textPart = new MimeBodyPart();
+        textPart.setContent(text, "text/plain; charset=UTF-8");
+
+        // Add the text and HTML parts to the child container.
+        msg_body.addBodyPart(textPart);
+
+        // Add the child container to the wrapper object.
+        wrap.setContent(msg_body);
+
+        // Create a multipart/mixed parent container.
+        MimeMultipart msg = new MimeMultipart("mixed");
+
+        // Add the parent container to the message.
+        message.setContent(msg);
+
+        // Add the multipart/alternative part to the message.
+        msg.addBodyPart(wrap);
+
+        // Add the gzip report, read straight from the compressed buffer
+        if (attachment != null) {
+            MimeBodyPart attachmentPart = new MimeBodyPart();
+            attachmentPart.setDataHandler(new DataHandler(new DataSource() {
+                public InputStream getInputStream() {
+                    return attachment.toInputStream();
+                }
+
+                public OutputStream getOutputStream() throws IOException {
+                    throw new IOException("Read only data source");
+                }
+
+                public String getContentType() {
+                    return "application/gzip";
+                }
+
+                public String getName() {
+                    return attachmentName;
+                }
+            }));
+            attachmentPart.setFileName(attachmentName);
+            attachmentPart.setDisposition(MimeBodyPart.ATTACHMENT);
+            msg.addBodyPart(attachmentPart);
+        }
+
+        Buffer outputStream = new Buffer();
+        message.writeTo(outputStream);
+        return new RawMessage(outputStream.toByteBuffer());
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Notification sink sending a raw email via SES
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import javax.mail.MessagingException;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+public class SesSink implements NotificationSink {
+    private final String sender;
+    private final String recipient;
+    private final String region;
+    private final SesMessageBuilder messageBuilder;
+
+    public SesSink(String sender, String recipient, String region, int inlineLimitBytes) {
+        this.sender = sender;
+        this.recipient = recipient;
+        this.region = region;
+        this.messageBuilder = new SesMessageBuilder(sender, recipient, inlineLimitBytes);
+    }
+
+    @Override
+    public String getName() {
+        return "ses";
+    }
+
+    @Override
+    public void send(Notification notification) throws IOException, MessagingException {
+        send(notification, new HashSet<>());
+    }
+
+    /*
+     * Large reports can take several messages; they are built and sent one by one. A failure of any of them fails
+     * the notification, and its retry sends the ones not delivered yet.
+     */
+    @Override
+    public void send(Notification notification, Set<Integer> deliveredParts) throws IOException, MessagingException {
+        messageBuilder.build(notification, deliveredParts, (part, rawMessage) -> {
+            AWSHelper.SESHelper.sendRawEmail(sender, recipient, rawMessage, region);
+            deliveredParts.add(part);
+        });
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Events and event details fetched by one shard of a run
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import java.io.Serializable;
+import java.util.Map;
+
+public class ShardResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final IndexedEvents events;
+    private final Map<String, EventDetailWithResources> eventDetails;
+
+    public ShardResult(IndexedEvents events, Map<String, EventDetailWithResources> eventDetails) {
+        this.events = events;
+        this.eventDetails = eventDetails;
+    }
+
+    public IndexedEvents getEvents() {
+        return events;
+    }
+
+    public Map<String, EventDetailWithResources> getEventDetails() {
+        return eventDetails;
+    }
+}
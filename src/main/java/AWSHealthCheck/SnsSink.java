@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Notification sink publishing to an SNS topic
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import java.nio.charset.StandardCharsets;
+
+public class SnsSink implements NotificationSink {
+    /*
+     * SNS limits the subject to 100 characters and the message to 256 KB.
+     * https://docs.aws.amazon.com/sns/latest/api/API_Publish.html
+     */
+    private static final int MAX_SUBJECT_LENGTH = 100;
+    private static final int MAX_MESSAGE_BYTES = 256 * 1024;
+    private static final String TRUNCATED = "\n... (truncated)";
+
+    private final String topicArn;
+    private final String region;
+
+    public SnsSink(String topicArn, String region) {
+        this.topicArn = topicArn;
+        this.region = region;
+    }
+
+    @Override
+    public String getName() {
+        return "sns";
+    }
+
+    @Override
+    public void send(Notification notification) {
+        String subject = notification.getSubject();
+        if (subject.length() > MAX_SUBJECT_LENGTH) subject = subject.substring(0, MAX_SUBJECT_LENGTH);
+
+        String message = notification.getContent();
+        if (message.getBytes(StandardCharsets.UTF_8).length > MAX_MESSAGE_BYTES) {
+            // Cut by characters with room for multi-byte characters; the full report is in the bucket history
+            message = message.substring(0, (MAX_MESSAGE_BYTES - TRUNCATED.length()) / 4) + TRUNCATED;
+        }
+        AWSHelper.SNSHelper.publish(topicArn, subject, message, region);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Lease object guarding the state kept in the bucket
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Lease kept as an S3 object holding "<owner>|<expiry epoch millis>", so an invocation started while a slow or
+ * retried one is still running skips its run instead of updating the hash, notification-sent and index objects
+ * alongside it. The bucket has to be versioned: every invocation writes its own version of the lease object and
+ * then lists the versions of the key. S3 lists them in the order it stored them, the same for every reader, so the
+ * earliest unexpired version holds the lease and every other invocation deletes its version and skips its run.
+ * Expired versions (e.g. left by a timed out invocation) are deleted along the way.
+ */
+public class StateLease {
+    private static final Logger LOGGER = LogManager.getLogger(StateLease.class);
+
+    private final String bucket;
+    private final String region;
+    private final String key;
+    private final String owner;
+    private String versionId;
+
+    public StateLease(String bucket, String region, String key, String owner) {
+        this.bucket = bucket;
+        this.region = region;
+        this.key = key;
+        this.owner = owner;
+    }
+
+    public boolean acquire(long ttlMillis) {
+        try {
+            PutObjectResult result = AWSHelper.S3Helper.uploadString(
+                    bucket, owner + "|" + (System.currentTimeMillis() + ttlMillis), key, region);
+            versionId = result.getVersionId();
+            if (versionId == null || versionId.equals("null")) {
+                LOGGER.error("Versioning is not enabled on bucket " + bucket + "; the lease " + key + " needs it");
+                versionId = null;
+                return false;
+            }
+
+            String holder = getHolder();
+            if (owner.equals(holder)) return true;
+
+            LOGGER.info("Lease " + key + " is held by " + holder);
+            release();
+            return false;
+        } catch (SdkClientException | IOException e) {
+            LOGGER.error("Unable to acquire lease " + key + ": " + e.getMessage());
+            release();
+            return false;
+        }
+    }
+
+    public void release() {
+        if (versionId == null) return;
+        try {
+            AWSHelper.S3Helper.deleteVersion(bucket, key, versionId, region);
+        } catch (SdkClientException e) {
+            // Left to expire
+            LOGGER.error("Unable to release lease " + key + ": " + e.getMessage());
+        }
+        versionId = null;
+    }
+
+    /*
+     * Owner of the earliest unexpired version of the lease, deleting the expired ones older than it. Null when
+     * there is none, e.g. when the listing doesn't show this invocation's version (yet).
+     */
+    private String getHolder() throws IOException {
+        List<S3VersionSummary> versions = AWSHelper.S3Helper.listVersions(bucket, key, region);
+        for (int i = versions.size() - 1; i >= 0; i--) {
+            S3VersionSummary version = versions.get(i);
+            if (version.isDeleteMarker()) continue;
+            if (version.getVersionId().equals(versionId)) return owner;
+
+            String content = AWSHelper.S3Helper.downloadStringVersion(bucket, key, version.getVersionId(), region);
+            if (content == null) continue;
+            String[] parts = content.trim().split("\\|");
+            try {
+                if (parts.length == 2 && Long.parseLong(parts[1]) > System.currentTimeMillis()) return parts[0];
+            } catch (NumberFormatException e) {
+                LOGGER.error("Invalid lease " + key + " version " + version.getVersionId() + ": " + content);
+            }
+            AWSHelper.S3Helper.deleteVersion(bucket, key, version.getVersionId(), region);
+        }
+        return null;
+    }
+}
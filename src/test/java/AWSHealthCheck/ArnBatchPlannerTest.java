@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  ArnBatchPlanner bin-packing and batch splitting tests
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.AmazonServiceException;
+import org.junit.Test;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ArnBatchPlannerTest {
+
+    private static String arn(int length, int id) {
+        String suffix = "/" + id;
+        StringBuilder sb = new StringBuilder("arn:aws:health:us-east-1::event/");
+        while (sb.length() < length - suffix.length()) sb.append('x');
+        return sb.append(suffix).toString();
+    }
+
+    private static AmazonServiceException error(String errorCode) {
+        AmazonServiceException e = new AmazonServiceException(errorCode);
+        e.setErrorCode(errorCode);
+        return e;
+    }
+
+    @Test
+    public void batchesStayWithinCountAndLengthLimits() {
+        ArnBatchPlanner planner = new ArnBatchPlanner(3, 250);
+        List<String> arns = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            arns.add(arn(i % 2 == 0 ? 120 : 60, i));
+        }
+
+        List<List<String>> batches = planner.plan(arns);
+
+        Set<String> planned = new HashSet<>();
+        for (List<String> i : batches) {
+            assertTrue(i.size() <= 3);
+            assertTrue(i.stream().mapToInt(String::length).sum() <= 250);
+            planned.addAll(i);
+        }
+        assertEquals(new HashSet<>(arns), planned);
+        // Five 120 and five 60 character ARNs: two long plus at most one short per batch
+        assertEquals(4, batches.size());
+    }
+
+    @Test
+    public void duplicatesAndFetchedArnsAreNotPlanned() {
+        ArnBatchPlanner planner = new ArnBatchPlanner();
+        String a = arn(80, 1);
+        String b = arn(80, 2);
+
+        assertEquals(Collections.singletonList(Arrays.asList(a, b)), planner.plan(Arrays.asList(a, b, a, null)));
+
+        planner.markFetched(Collections.singletonList(a));
+        assertEquals(Collections.singletonList(Collections.singletonList(b)), planner.plan(Arrays.asList(a, b)));
+    }
+
+    @Test
+    public void validationErrorSplitsTheBatchDownToTheRejectedArn() {
+        List<List<String>> calls = new ArrayList<>();
+        List<String> result = ArnBatchPlanner.execute(Arrays.asList("a", "b", "c", "bad"), batch -> {
+            calls.add(new ArrayList<>(batch));
+            if (batch.contains("bad") && batch.size() > 1) throw error("ValidationException");
+            return new ArrayList<>(batch);
+        });
+
+        assertEquals(Arrays.asList("a", "b", "c", "bad"), result);
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c", "bad"), Arrays.asList("a", "b"),
+                                   Arrays.asList("c", "bad"), Collections.singletonList("c"),
+                                   Collections.singletonList("bad")), calls);
+    }
+
+    @Test
+    public void throttlingIsNotSplit() {
+        List<List<String>> calls = new ArrayList<>();
+        try {
+            ArnBatchPlanner.execute(Arrays.asList("a", "b"), batch -> {
+                calls.add(batch);
+                throw error("ThrottlingException");
+            });
+            fail("Expected the throttling error");
+        } catch (AmazonServiceException e) {
+            assertEquals("ThrottlingException", e.getErrorCode());
+        }
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void singleRejectedArnFails() {
+        try {
+            ArnBatchPlanner.execute(Collections.singletonList("bad"), batch -> {
+                throw error("InvalidParameterValueException");
+            });
+            fail("Expected the validation error");
+        } catch (AmazonServiceException e) {
+            assertEquals("InvalidParameterValueException", e.getErrorCode());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  ChangeProbe skip decision tests
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChangeProbeTest {
+    private static final long RECONCILE_MILLIS = 60 * 60 * 1000L;
+
+    @Test
+    public void unchangedProbeSkipsUntilTheReconcileInterval() {
+        ChangeProbe stored = new ChangeProbe("abc", 1000L);
+
+        assertTrue(new ChangeProbe("abc", 2000L).canSkip(stored, RECONCILE_MILLIS));
+        assertFalse(new ChangeProbe("def", 2000L).canSkip(stored, RECONCILE_MILLIS));
+        assertFalse(new ChangeProbe("abc", 1000L + RECONCILE_MILLIS).canSkip(stored, RECONCILE_MILLIS));
+    }
+
+    @Test
+    public void heldDigestStopsSkippingOnceDue() {
+        ChangeProbe stored = ChangeProbe.parse(new ChangeProbe("abc", 1000L).withDigestDueAt(5000L).toString());
+
+        assertEquals(5000L, stored.getDigestDueAt());
+        assertTrue(new ChangeProbe("abc", 4999L).canSkip(stored, RECONCILE_MILLIS));
+        assertFalse(new ChangeProbe("abc", 5000L).canSkip(stored, RECONCILE_MILLIS));
+    }
+
+    @Test
+    public void parsesProbesWithoutDigestDueTime() {
+        ChangeProbe stored = ChangeProbe.parse("1000|abc");
+
+        assertEquals("abc", stored.getFingerprint());
+        assertEquals(1000L, stored.getLastFullRun());
+        assertEquals(0L, stored.getDigestDueAt());
+        assertNull(ChangeProbe.parse("abc"));
+    }
+}
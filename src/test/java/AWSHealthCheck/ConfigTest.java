@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  Config time range matching tests
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.Event;
+import org.junit.Test;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class ConfigTest {
+
+    private static Config.TimeRange getRange(String from, String to) {
+        Config.TimeRange range = new Config.TimeRange();
+        range.setFrom(from);
+        range.setTo(to);
+        return range;
+    }
+
+    private static Date daysAgo(int days) {
+        return Date.from(Instant.now().minus(Duration.ofDays(days)));
+    }
+
+    @Test
+    public void noRangesMatchEveryEvent() {
+        assertTrue(new Config().inTimeRanges(new Event()));
+    }
+
+    @Test
+    public void startTimeMustBeInAnyRange() {
+        Config profile = new Config();
+        profile.setStart_times(Arrays.asList(getRange("2019-01-01", "2019-01-31T23:59:59Z"),
+                                             getRange("2019-03-01", null)));
+
+        assertTrue(profile.inTimeRanges(new Event().withStartTime(Date.from(Instant.parse("2019-01-15T00:00:00Z")))));
+        assertTrue(profile.inTimeRanges(new Event().withStartTime(Date.from(Instant.parse("2019-03-01T00:00:00Z")))));
+        assertFalse(profile.inTimeRanges(new Event().withStartTime(Date.from(Instant.parse("2019-02-15T00:00:00Z")))));
+        assertFalse(profile.inTimeRanges(new Event()));
+    }
+
+    @Test
+    public void rollingRangeFollowsTheCurrentTime() {
+        Config profile = new Config();
+        profile.setStart_times(Collections.singletonList(getRange("P7D", null)));
+
+        assertTrue(profile.inTimeRanges(new Event().withStartTime(daysAgo(1))));
+        assertFalse(profile.inTimeRanges(new Event().withStartTime(daysAgo(8))));
+    }
+
+    @Test
+    public void everyConfiguredFieldMustMatch() {
+        Config profile = new Config();
+        profile.setStart_times(Collections.singletonList(getRange("P30D", null)));
+        profile.setLast_updated_times(Collections.singletonList(getRange("P1D", null)));
+
+        assertTrue(profile.inTimeRanges(new Event().withStartTime(daysAgo(10)).withLastUpdatedTime(daysAgo(0))));
+        assertFalse(profile.inTimeRanges(new Event().withStartTime(daysAgo(10)).withLastUpdatedTime(daysAgo(2))));
+    }
+}
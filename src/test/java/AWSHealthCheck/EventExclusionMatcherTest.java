@@ -0,0 +1,70 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  EventExclusionMatcher pattern tests
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.Event;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class EventExclusionMatcherTest {
+
+    private static Event getEvent(String service, String eventTypeCode, String region) {
+        return new Event().withService(service).withEventTypeCode(eventTypeCode).withRegion(region);
+    }
+
+    @Test
+    public void anyPatternExcludesTheEvent() {
+        EventExclusionMatcher matcher = new EventExclusionMatcher(Arrays.asList(
+                "EC2:AWS_EC2_.*_SCHEDULED:.*", ".*:.*_OPERATIONAL_NOTIFICATION:us-west-2"));
+
+        assertTrue(matcher.matches(getEvent("EC2", "AWS_EC2_INSTANCE_REBOOT_SCHEDULED", "eu-west-1")));
+        assertTrue(matcher.matches(getEvent("RDS", "AWS_RDS_OPERATIONAL_NOTIFICATION", "us-west-2")));
+        assertFalse(matcher.matches(getEvent("RDS", "AWS_RDS_OPERATIONAL_NOTIFICATION", "us-east-1")));
+        assertFalse(matcher.matches(getEvent("EC2", "AWS_EC2_OPERATIONAL_ISSUE", "eu-west-1")));
+    }
+
+    @Test
+    public void patternsMatchTheWholeKey() {
+        EventExclusionMatcher matcher = new EventExclusionMatcher(Arrays.asList("EC2:AWS_EC2_OPERATIONAL_ISSUE",
+                                                                                "EC2"));
+
+        assertFalse(matcher.matches(getEvent("EC2", "AWS_EC2_OPERATIONAL_ISSUE", "eu-west-1")));
+        assertTrue(new EventExclusionMatcher(Collections.singletonList("EC2:AWS_EC2_OPERATIONAL_ISSUE:.*"))
+                   .matches(getEvent("EC2", "AWS_EC2_OPERATIONAL_ISSUE", "eu-west-1")));
+    }
+
+    @Test
+    public void missingFieldsMatchAsEmpty() {
+        assertEquals("EC2::", EventExclusionMatcher.getKey(getEvent("EC2", null, null)));
+        assertTrue(new EventExclusionMatcher(Collections.singletonList("EC2::")).matches(getEvent("EC2", null, null)));
+    }
+
+    @Test
+    public void noPatternsExcludeNothing() {
+        assertFalse(new EventExclusionMatcher(null).matches(getEvent("EC2", "AWS_EC2_OPERATIONAL_ISSUE", "")));
+        assertFalse(new EventExclusionMatcher(Collections.emptyList()).matches(getEvent("", "", "")));
+    }
+}
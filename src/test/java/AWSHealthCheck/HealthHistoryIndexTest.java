@@ -0,0 +1,111 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  HealthHistoryIndex row format and query selection tests
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.Event;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HealthHistoryIndexTest {
+    // 2019-01-02T00:00:00Z
+    private static final long JAN_2 = 1546387200000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static HealthHistoryIndex.Row getRow(String id, String service, String region, long startTime) {
+        return HealthHistoryIndex.Row.of(new Event().withArn("arn:aws:health:" + region + "::event/" + id)
+                                                    .withService(service).withRegion(region)
+                                                    .withEventTypeCategory("issue").withStatusCode("open")
+                                                    .withStartTime(new Date(startTime)));
+    }
+
+    @Test
+    public void rowSurvivesFormatAndParse() {
+        HealthHistoryIndex.Row row = HealthHistoryIndex.Row.of(
+                new Event().withArn("arn:aws:health:eu-west-1::event/1").withService("RDS").withRegion("eu-west-1")
+                           .withEventTypeCategory("issue").withStatusCode("closed")
+                           .withStartTime(new Date(JAN_2)).withEndTime(new Date(JAN_2 + DAY))
+                           .withLastUpdatedTime(new Date(JAN_2 + 2 * DAY)));
+
+        HealthHistoryIndex.Row parsed = HealthHistoryIndex.Row.parse(row.format());
+
+        assertEquals(row, parsed);
+        assertEquals("RDS", parsed.getService());
+        assertEquals(JAN_2, parsed.getStartTime());
+        assertEquals(Long.valueOf(JAN_2 + DAY), parsed.getEndTime());
+        assertEquals(Long.valueOf(JAN_2 + 2 * DAY), parsed.getLastUpdatedTime());
+    }
+
+    @Test
+    public void missingFieldsAndTabsAreFormattedSafely() {
+        HealthHistoryIndex.Row row = HealthHistoryIndex.Row.of(
+                new Event().withArn("arn:aws:health:global::event/2").withService("IAM\tGlobal"));
+
+        HealthHistoryIndex.Row parsed = HealthHistoryIndex.Row.parse(row.format());
+
+        assertEquals("IAM Global", parsed.getService());
+        assertEquals("", parsed.getRegion());
+        assertEquals(0L, parsed.getStartTime());
+        assertNull(parsed.getEndTime());
+        assertNull(parsed.getLastUpdatedTime());
+    }
+
+    @Test
+    public void badRowFailsToParse() {
+        try {
+            HealthHistoryIndex.Row.parse("arn\tEC2\tus-east-1\tissue\topen\tnot-a-time\t\t");
+            fail("Expected the bad start time to fail");
+        } catch (NumberFormatException e) {
+            assertTrue(e.getMessage().contains("not-a-time"));
+        }
+    }
+
+    @Test
+    public void selectFiltersByServiceRegionAndStartTimeInIndexOrder() {
+        HealthHistoryIndex.Row ec2East = getRow("1", "EC2", "us-east-1", JAN_2 + DAY);
+        HealthHistoryIndex.Row ec2West = getRow("2", "EC2", "eu-west-1", JAN_2);
+        HealthHistoryIndex.Row rds = getRow("3", "RDS", "us-east-1", JAN_2);
+        HealthHistoryIndex.Row late = getRow("4", "EC2", "us-east-1", JAN_2 + 10 * DAY);
+        List<HealthHistoryIndex.Row> rows = Arrays.asList(late, rds, ec2East, ec2West);
+        Date from = new Date(JAN_2);
+        Date to = new Date(JAN_2 + 10 * DAY);
+
+        assertEquals(Arrays.asList(ec2West, ec2East, rds),
+                     HealthHistoryIndex.select(rows, null, null, from, to));
+        assertEquals(Arrays.asList(ec2West, ec2East), HealthHistoryIndex.select(rows, "ec2", null, from, to));
+        assertEquals(Collections.singletonList(rds),
+                     HealthHistoryIndex.select(rows, null, "US-EAST-1", from, new Date(JAN_2 + DAY)));
+    }
+
+    @Test
+    public void partitionsCoverEveryMonthOfTheRange() {
+        assertEquals(Arrays.asList("201812", "201901", "201902"),
+                     HealthHistoryIndex.getPartitions(new Date(JAN_2 - 2 * DAY), new Date(JAN_2 + 40 * DAY)));
+        assertEquals(Collections.singletonList("201901"),
+                     HealthHistoryIndex.getPartitions(new Date(JAN_2), new Date(JAN_2)));
+    }
+}
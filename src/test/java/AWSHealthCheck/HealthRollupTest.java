@@ -0,0 +1,93 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  HealthRollup weekly counter tests
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.health.model.Event;
+import org.junit.Test;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HealthRollupTest {
+    // Wednesday 2019-01-02 and the following Tuesday, UTC
+    private static final long START = 1546387200000L;
+    private static final long END = START + 6 * 24 * 60 * 60 * 1000L;
+
+    private static HealthHistoryIndex.Row getRow(String status) {
+        Event event = new Event().withArn("arn:aws:health:eu-west-1::event/EC2/1").withService("EC2")
+                                 .withRegion("eu-west-1").withEventTypeCategory("issue").withStatusCode(status)
+                                 .withStartTime(new Date(START));
+        if ("closed".equals(status)) event.setEndTime(new Date(END));
+        return HealthHistoryIndex.Row.of(event);
+    }
+
+    private static Map<HealthHistoryIndex.Row, HealthHistoryIndex.Row> change(HealthHistoryIndex.Row row,
+                                                                              HealthHistoryIndex.Row previous) {
+        Map<HealthHistoryIndex.Row, HealthHistoryIndex.Row> changes = new LinkedHashMap<>();
+        changes.put(row, previous);
+        return changes;
+    }
+
+    @Test
+    public void newRowCountsAsOpenedInItsStartWeek() {
+        HealthRollup rollup = new HealthRollup();
+        rollup.update(change(getRow("open"), null));
+
+        HealthRollup.Bucket bucket = rollup.getBuckets().get("2018-12-31");
+        assertEquals(Collections.singletonMap("EC2", 1L), bucket.getOpenedByService());
+        assertEquals(Collections.singletonMap("eu-west-1", 1L), bucket.getOpenedByRegion());
+        assertTrue(bucket.getClosedByService().isEmpty());
+    }
+
+    @Test
+    public void closingRowCountsAsClosedWithItsResolveTime() {
+        HealthRollup rollup = new HealthRollup();
+        rollup.update(change(getRow("open"), null));
+        rollup.update(change(getRow("closed"), getRow("open")));
+
+        HealthRollup.Bucket bucket = rollup.getBuckets().get("2019-01-07");
+        assertEquals(Collections.singletonMap("EC2", 1L), bucket.getClosedByService());
+        assertEquals(Collections.singletonMap("EC2", END - START), bucket.getMeanTimeToResolveMillisByService());
+        assertEquals(Collections.singletonMap("EC2", 1L),
+                     rollup.getBuckets().get("2018-12-31").getOpenedByService());
+    }
+
+    @Test
+    public void changesOfAFailedIndexWriteAreNotCountedTwice() {
+        HealthRollup rollup = new HealthRollup();
+        rollup.update(change(getRow("open"), null));
+        // The index write failed, so the next run reports the same change again
+        rollup.update(change(getRow("open"), null));
+        // And then the event closes, still against the row the index never stored
+        rollup.update(change(getRow("closed"), null));
+        rollup.update(change(getRow("closed"), null));
+
+        assertEquals(Collections.singletonMap("EC2", 1L),
+                     rollup.getBuckets().get("2018-12-31").getOpenedByService());
+        assertEquals(Collections.singletonMap("EC2", 1L),
+                     rollup.getBuckets().get("2019-01-07").getClosedByService());
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  NotificationDispatcher tests against local stub sinks
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class NotificationDispatcherTest {
+    private static final long TIMEOUT_MILLIS = 500L;
+
+    private final Notification notification = new Notification("default", "PRIORITY", "hash", "subject", "content");
+
+    private static class StubSink implements NotificationSink {
+        private final String name;
+        private final Exception failure;
+        private final long delayMillis;
+        private final List<Notification> sent = Collections.synchronizedList(new ArrayList<>());
+
+        StubSink(String name, Exception failure, long delayMillis) {
+            this.name = name;
+            this.failure = failure;
+            this.delayMillis = delayMillis;
+        }
+
+        static StubSink working(String name) {
+            return new StubSink(name, null, 0L);
+        }
+
+        static StubSink failing(String name) {
+            return new StubSink(name, new IOException(name + " is down"), 0L);
+        }
+
+        static StubSink hanging(String name) {
+            return new StubSink(name, null, 10 * TIMEOUT_MILLIS);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void send(Notification notification) throws Exception {
+            if (delayMillis > 0) Thread.sleep(delayMillis);
+            if (failure != null) throw failure;
+            sent.add(notification);
+        }
+    }
+
+    // Sends three parts, failing the first attempt at part 1
+    private static class PartialSink implements NotificationSink {
+        private final List<Integer> sentParts = Collections.synchronizedList(new ArrayList<>());
+        private boolean failed;
+
+        @Override
+        public String getName() {
+            return "ses";
+        }
+
+        @Override
+        public void send(Notification notification) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void send(Notification notification, Set<Integer> deliveredParts) throws IOException {
+            for (int i = 0; i < 3; i++) {
+                if (deliveredParts.contains(i)) continue;
+                if (i == 1 && !failed) {
+                    failed = true;
+                    throw new IOException("throttled");
+                }
+                sentParts.add(i);
+                deliveredParts.add(i);
+            }
+        }
+    }
+
+    @Test
+    public void dispatchDeliversToEverySink() {
+        StubSink ses = StubSink.working("ses");
+        StubSink webhook = StubSink.working("webhook");
+        NotificationDispatcher dispatcher = new NotificationDispatcher(Arrays.asList(ses, webhook), TIMEOUT_MILLIS);
+
+        assertTrue(dispatcher.dispatch(notification).isEmpty());
+        assertEquals(Collections.singletonList(notification), ses.sent);
+        assertEquals(Collections.singletonList(notification), webhook.sent);
+    }
+
+    @Test
+    public void dispatchReportsOnlyTheFailedSinks() {
+        StubSink ses = StubSink.working("ses");
+        StubSink sns = StubSink.failing("sns");
+        NotificationDispatcher dispatcher = new NotificationDispatcher(Arrays.asList(ses, sns), TIMEOUT_MILLIS);
+
+        assertEquals(Collections.singletonList("sns"), dispatcher.dispatch(notification));
+        assertEquals(1, ses.sent.size());
+    }
+
+    @Test
+    public void dispatchTimesOutHangingSinks() {
+        StubSink ses = StubSink.working("ses");
+        StubSink webhook = StubSink.hanging("webhook");
+        NotificationDispatcher dispatcher = new NotificationDispatcher(Arrays.asList(ses, webhook), TIMEOUT_MILLIS);
+
+        long started = System.currentTimeMillis();
+        assertEquals(Collections.singletonList("webhook"), dispatcher.dispatch(notification));
+        assertTrue(System.currentTimeMillis() - started < 5 * TIMEOUT_MILLIS);
+        assertEquals(1, ses.sent.size());
+        assertTrue(webhook.sent.isEmpty());
+    }
+
+    @Test
+    public void retryDeliversToTheNamedSinkOnly() {
+        StubSink ses = StubSink.working("ses");
+        StubSink sns = StubSink.working("sns");
+        NotificationDispatcher dispatcher = new NotificationDispatcher(Arrays.asList(ses, sns), TIMEOUT_MILLIS);
+
+        assertTrue(dispatcher.retry("sns", notification));
+        assertTrue(ses.sent.isEmpty());
+        assertEquals(1, sns.sent.size());
+        assertFalse(dispatcher.retry("webhook", notification));
+    }
+
+    @Test
+    public void deliverCommitsAfterDelivery() throws IOException {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(
+                Collections.singletonList(StubSink.working("ses")), TIMEOUT_MILLIS);
+        RetryQueue retryQueue = new RetryQueue();
+        List<String> writes = new ArrayList<>();
+
+        dispatcher.deliver(notification, retryQueue, () -> writes.add("queue"), () -> writes.add("hash"));
+
+        assertEquals(Collections.singletonList("hash"), writes);
+        assertTrue(retryQueue.isEmpty());
+    }
+
+    @Test
+    public void deliverQueuesFailedSinksBeforeCommitting() throws IOException {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(
+                Arrays.asList(StubSink.working("ses"), StubSink.failing("sns")), TIMEOUT_MILLIS);
+        RetryQueue retryQueue = new RetryQueue();
+        List<String> writes = new ArrayList<>();
+
+        dispatcher.deliver(notification, retryQueue, () -> writes.add("queue"), () -> writes.add("hash"));
+
+        assertEquals(Arrays.asList("queue", "hash"), writes);
+        assertEquals(1, retryQueue.getEntries().size());
+        assertEquals("sns", retryQueue.getEntries().get(0).getSink());
+        assertSame(notification, retryQueue.getEntries().get(0).getNotification());
+    }
+
+    @Test
+    public void deliverDoesNotCommitWhenQueueingFails() {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(
+                Collections.singletonList(StubSink.failing("ses")), TIMEOUT_MILLIS);
+        List<String> writes = new ArrayList<>();
+
+        try {
+            dispatcher.deliver(notification, new RetryQueue(), () -> {
+                throw new IOException("bucket unavailable");
+            }, () -> writes.add("hash"));
+            fail("Expected the queue write failure");
+        } catch (IOException e) {
+            assertEquals("bucket unavailable", e.getMessage());
+        }
+        assertTrue(writes.isEmpty());
+    }
+
+    @Test
+    public void retrySendsOnlyTheUndeliveredParts() throws IOException {
+        PartialSink ses = new PartialSink();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(Collections.singletonList(ses), TIMEOUT_MILLIS);
+        RetryQueue retryQueue = new RetryQueue();
+
+        dispatcher.deliver(notification, retryQueue, () -> { }, () -> { });
+        RetryQueue.Entry entry = retryQueue.getEntries().get(0);
+        assertEquals(Collections.singleton(0), entry.getDeliveredParts());
+
+        assertTrue(dispatcher.retry(entry.getSink(), entry.getNotification(), entry.getDeliveredParts()));
+        assertEquals(Arrays.asList(0, 1, 2), ses.sentParts);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  RetryQueue backoff and give-up tests
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import org.junit.Test;
+import java.io.*;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class RetryQueueTest {
+    private static final long NOW = 1549411200000L;
+
+    private static Notification notification(String profile, String lane, String id) {
+        return new Notification(profile, lane, id, "subject", "content");
+    }
+
+    @Test
+    public void newEntryWaitsForTheFirstBackoff() {
+        RetryQueue queue = new RetryQueue();
+        queue.add("ses", notification("default", "PRIORITY", "a"), NOW);
+
+        assertTrue(queue.getDueEntries(NOW).isEmpty());
+        assertTrue(queue.getDueEntries(NOW + RetryQueue.BASE_BACKOFF_MILLIS - 1).isEmpty());
+        assertEquals(1, queue.getDueEntries(NOW + RetryQueue.BASE_BACKOFF_MILLIS).size());
+    }
+
+    @Test
+    public void backoffDoublesUpToTheMaximum() {
+        assertEquals(RetryQueue.BASE_BACKOFF_MILLIS, RetryQueue.getBackoffMillis(1));
+        assertEquals(2 * RetryQueue.BASE_BACKOFF_MILLIS, RetryQueue.getBackoffMillis(2));
+        assertEquals(4 * RetryQueue.BASE_BACKOFF_MILLIS, RetryQueue.getBackoffMillis(3));
+        assertEquals(RetryQueue.MAX_BACKOFF_MILLIS, RetryQueue.getBackoffMillis(RetryQueue.MAX_ATTEMPTS));
+        assertEquals(RetryQueue.MAX_BACKOFF_MILLIS, RetryQueue.getBackoffMillis(100));
+    }
+
+    @Test
+    public void failedRetryBacksOff() {
+        RetryQueue queue = new RetryQueue();
+        queue.add("ses", notification("default", "PRIORITY", "a"), NOW);
+        RetryQueue.Entry entry = queue.getEntries().get(0);
+
+        long retried = NOW + RetryQueue.BASE_BACKOFF_MILLIS;
+        assertTrue(queue.retryFailed(entry, retried));
+        assertEquals(2, entry.getAttempts());
+        assertEquals(retried + RetryQueue.getBackoffMillis(2), entry.getNextAttemptMillis());
+        assertTrue(queue.getDueEntries(retried).isEmpty());
+        assertEquals(1, queue.getDueEntries(entry.getNextAttemptMillis()).size());
+    }
+
+    @Test
+    public void entryIsGivenUpAfterMaxAttempts() {
+        RetryQueue queue = new RetryQueue();
+        queue.add("ses", notification("default", "PRIORITY", "a"), NOW);
+        RetryQueue.Entry entry = queue.getEntries().get(0);
+
+        for (int i = 1; i < RetryQueue.MAX_ATTEMPTS - 1; i++) {
+            assertTrue(queue.retryFailed(entry, NOW));
+        }
+        assertFalse(queue.retryFailed(entry, NOW));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void newerNotificationSupersedesQueuedOne() {
+        RetryQueue queue = new RetryQueue();
+        queue.add("ses", notification("default", "PRIORITY", "a"), NOW);
+        queue.add("ses", notification("default", "DIGEST", "b"), NOW);
+        queue.add("sns", notification("default", "PRIORITY", "c"), NOW);
+        queue.add("ses", notification("default", "PRIORITY", "d"), NOW);
+
+        assertEquals(3, queue.getEntries().size());
+        assertTrue(queue.getEntries().stream().anyMatch(i -> i.getSink().equals("ses")
+                                                             && i.getNotification().getId().equals("d")));
+        assertFalse(queue.getEntries().stream().anyMatch(i -> i.getNotification().getId().equals("a")));
+    }
+
+    @Test
+    public void queueSurvivesSerialization() throws IOException, ClassNotFoundException {
+        RetryQueue queue = new RetryQueue();
+        queue.add("webhook", notification("ops", "DIGEST", "a"), new TreeSet<>(Arrays.asList(0, 2)), NOW);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(queue);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            RetryQueue restored = (RetryQueue) ois.readObject();
+            assertEquals(1, restored.getEntries().size());
+            RetryQueue.Entry entry = restored.getEntries().get(0);
+            assertEquals("webhook", entry.getSink());
+            assertEquals("ops", entry.getNotification().getProfile());
+            assertEquals(NOW + RetryQueue.BASE_BACKOFF_MILLIS, entry.getNextAttemptMillis());
+            assertEquals(new TreeSet<>(Arrays.asList(0, 2)), entry.getDeliveredParts());
+        }
+    }
+}
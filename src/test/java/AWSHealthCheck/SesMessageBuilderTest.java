@@ -0,0 +1,157 @@
+/**
+ *  Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *  software and associated documentation files (the "Software"), to deal in the Software
+ *  without restriction, including without limitation the rights to use, copy, modify,
+ *  merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *  PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ *  SesMessageBuilder tests for the inline, single attachment and split messages
+ *
+ * @author Paul Hyung Yuel Kim
+ * @version 1.0
+ * @since 2019-02-06
+ */
+package AWSHealthCheck;
+
+import com.amazonaws.services.simpleemail.model.RawMessage;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class SesMessageBuilderTest {
+    private static final int INLINE_LIMIT_BYTES = 1024;
+    // Leaves about 73 KB for the attachment of each message
+    private static final int MAX_RAW_MESSAGE_BYTES = 180 * 1024;
+
+    private static Notification getNotification(int events) {
+        Random random = new Random(events);
+        StringBuilder content = new StringBuilder("check-AWSHealth\n");
+        for (int i = 0; i < events; i++) {
+            content.append("\nEvent ").append(i).append(": ");
+            for (int j = 0; j < 1000; j++) {
+                content.append((char) ('a' + random.nextInt(26)));
+            }
+            content.append('\n');
+        }
+        return new Notification("default", "PRIORITY", "hash", "AWS Health update", content.toString());
+    }
+
+    private static Map<Integer, MimeMessage> build(SesMessageBuilder builder, Notification notification,
+                                                   Set<Integer> skipParts, int maxBytes) throws Exception {
+        Map<Integer, MimeMessage> messages = new TreeMap<>();
+        builder.build(notification, skipParts, (part, rawMessage) -> {
+            try {
+                messages.put(part, parse(rawMessage, maxBytes));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        return messages;
+    }
+
+    private static MimeMessage parse(RawMessage rawMessage, int maxBytes) throws Exception {
+        ByteBuffer data = rawMessage.getData().duplicate();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        assertTrue("Message of " + bytes.length + " bytes", bytes.length <= maxBytes);
+        return new MimeMessage(Session.getDefaultInstance(new Properties()), new ByteArrayInputStream(bytes));
+    }
+
+    private static String getAttachment(MimeMessage message) throws Exception {
+        MimeMultipart parts = (MimeMultipart) message.getContent();
+        assertEquals(2, parts.getCount());
+        try (InputStream in = new GZIPInputStream(parts.getBodyPart(1).getInputStream())) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void smallReportIsSentInline() throws Exception {
+        Notification notification = new Notification("default", "PRIORITY", "hash", "subject", "A short report\n");
+        SesMessageBuilder builder = new SesMessageBuilder("sender@example.com", "to@example.com", INLINE_LIMIT_BYTES);
+
+        Map<Integer, MimeMessage> messages = build(builder, notification, Collections.emptySet(),
+                                                   SesMessageBuilder.MAX_RAW_MESSAGE_BYTES);
+
+        assertEquals(Collections.singleton(0), messages.keySet());
+        MimeMessage message = messages.get(0);
+        assertEquals("subject", message.getSubject());
+        MimeMultipart parts = (MimeMultipart) message.getContent();
+        assertEquals(1, parts.getCount());
+        MimeMultipart body = (MimeMultipart) parts.getBodyPart(0).getContent();
+        assertEquals("A short report\n", body.getBodyPart(0).getContent());
+    }
+
+    @Test
+    public void largeReportIsAttachedToOneMessage() throws Exception {
+        Notification notification = getNotification(20);
+        SesMessageBuilder builder = new SesMessageBuilder("sender@example.com", "to@example.com", INLINE_LIMIT_BYTES);
+
+        Map<Integer, MimeMessage> messages = build(builder, notification, Collections.emptySet(),
+                                                   SesMessageBuilder.MAX_RAW_MESSAGE_BYTES);
+
+        assertEquals(Collections.singleton(0), messages.keySet());
+        assertEquals(notification.getSubject(), messages.get(0).getSubject());
+        assertEquals(notification.getContent(), getAttachment(messages.get(0)));
+    }
+
+    @Test
+    public void reportTooLargeForOneMessageIsSplitAtEvents() throws Exception {
+        Notification notification = getNotification(600);
+        SesMessageBuilder builder = new SesMessageBuilder("sender@example.com", "to@example.com", INLINE_LIMIT_BYTES,
+                                                          MAX_RAW_MESSAGE_BYTES);
+
+        Map<Integer, MimeMessage> messages = build(builder, notification, Collections.emptySet(),
+                                                   MAX_RAW_MESSAGE_BYTES);
+
+        int count = messages.size();
+        assertTrue(count > 1);
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<Integer, MimeMessage> i : messages.entrySet()) {
+            assertEquals(notification.getSubject() + " (" + (i.getKey() + 1) + "/" + count + ")",
+                         i.getValue().getSubject());
+            String part = getAttachment(i.getValue());
+            if (i.getKey() > 0) assertTrue(part.startsWith("Event "));
+            content.append(part);
+        }
+        assertEquals(notification.getContent(), content.toString());
+    }
+
+    @Test
+    public void deliveredPartsAreNotBuiltAgain() throws Exception {
+        Notification notification = getNotification(600);
+        SesMessageBuilder builder = new SesMessageBuilder("sender@example.com", "to@example.com", INLINE_LIMIT_BYTES,
+                                                          MAX_RAW_MESSAGE_BYTES);
+        Map<Integer, MimeMessage> all = build(builder, notification, Collections.emptySet(), MAX_RAW_MESSAGE_BYTES);
+
+        Set<Integer> delivered = new HashSet<>(Arrays.asList(0, 1));
+        Map<Integer, MimeMessage> rest = build(builder, notification, delivered, MAX_RAW_MESSAGE_BYTES);
+
+        Set<Integer> expected = new TreeSet<>(all.keySet());
+        expected.removeAll(delivered);
+        assertEquals(expected, rest.keySet());
+        for (Integer i : rest.keySet()) {
+            assertEquals(all.get(i).getSubject(), rest.get(i).getSubject());
+            assertEquals(getAttachment(all.get(i)), getAttachment(rest.get(i)));
+        }
+    }
+}